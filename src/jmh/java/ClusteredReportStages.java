@@ -0,0 +1,108 @@
+import benchmarks.ReportStages;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@link ReportStages} over a workbook from {@link ClusteredWorkbookGenerator}, using the same
+ * reader, grouper, renderer and writers as {@link EmailProcessorXLSX}.
+ */
+public class ClusteredReportStages implements ReportStages {
+
+    private File file;
+    private List<EmailProcessorXLSX.EmailEntry> entries;
+    private List<ClusterGroup> groups;
+    private List<RenderedCluster> rendered;
+
+    @Override
+    public void setUp(int rows, int clusters, double skew, int bodyLength, double singletonShare) throws IOException {
+        file = File.createTempFile("benchmark-", ".xlsx");
+        try (OutputStream out = new FileOutputStream(file)) {
+            new ClusteredWorkbookGenerator()
+                    .rows(rows)
+                    .clusters(clusters)
+                    .skew(skew)
+                    .bodyLength(bodyLength)
+                    .singletonShare(singletonShare)
+                    .write(out);
+        }
+
+        entries = new ArrayList<>();
+        readRows(entries::add);
+
+        groups = new ArrayList<>();
+        group("unbounded", cluster -> groups.add((ClusterGroup) cluster));
+
+        rendered = new ArrayList<>();
+        for (int i = 0; i < groups.size(); i++) {
+            rendered.add(RenderedCluster.render(groups.get(i), i == groups.size() - 1, null, 0));
+        }
+    }
+
+    @Override
+    public void read(Consumer<Object> sink) throws IOException {
+        readRows(sink::accept);
+    }
+
+    private void readRows(Consumer<EmailProcessorXLSX.EmailEntry> sink) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+        } catch (InvalidFormatException | InvalidOperationException e) {
+            throw new IOException("Failed to open XLSX workbook: " + e.getMessage(), e);
+        }
+        try {
+            new StreamingXlsxReader(pkg).readEntries(sink);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    @Override
+    public void group(String memoryBudget, Consumer<Object> sink) throws IOException {
+        long budget = memoryBudget.equals("unbounded") ? Long.MAX_VALUE : ReportOptions.parseSize(memoryBudget);
+        try (ClusterGrouper grouper = new ClusterGrouper(budget, null)) {
+            entries.forEach(grouper);
+            ClusterGrouper.ClusterSource clusters = grouper.clusters();
+            for (ClusterGroup cluster = clusters.next(); cluster != null; cluster = clusters.next()) {
+                sink.accept(cluster);
+            }
+        }
+    }
+
+    @Override
+    public void render(Consumer<Object> sink) {
+        for (ClusterGroup cluster : groups) {
+            sink.accept(ClusterRenderer.renderCluster(cluster.getClusterNumber(), cluster.getRows()));
+        }
+    }
+
+    @Override
+    public void write(String mode, Path output) throws IOException {
+        try (ReportWriter writer = ReportWriter.Mode.valueOf(mode).open(output.toString())) {
+            for (RenderedCluster cluster : rendered) {
+                if (cluster.getLines() != null) {
+                    writer.writeClusterParagraph(cluster.getLines());
+                }
+                for (int s = 0; s < cluster.getSeparatorCount(); s++) {
+                    writer.writeSeparator();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        file.delete();
+    }
+}
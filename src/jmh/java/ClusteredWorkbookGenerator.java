@@ -0,0 +1,141 @@
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes synthetic clustered email exports for benchmarks. Output depends only on the settings
+ * and the seed, so every run benchmarks the same workbook.
+ *
+ * <p>Cluster sizes follow a Zipf distribution: a skew of {@code 0} spreads rows evenly, larger
+ * values concentrate them in a few big clusters. A share of rows goes to the singleton cluster
+ * {@value ClusterRenderer#SINGLETON_CLUSTER}.
+ */
+public class ClusteredWorkbookGenerator {
+
+    private static final String[] HEADERS = {
+            "docket_no", "mail_list_id", "mail_id", "ticket_id", "disposition_name",
+            "sub_disposition_name", "priority_name", "problem_reported", "assigned_to_dept_name",
+            "ProcessedBody_cleaned", "Solution", "Cluster"
+    };
+    private static final String[] DISPOSITIONS = {"Complaint", "Query", "Request", "Feedback", "Escalation"};
+    private static final String[] SUB_DISPOSITIONS = {
+            "Billing", "Login", "Delivery", "Refund", "Password Reset", "Account Update", "Outage", "Other"
+    };
+    private static final String[] PRIORITIES = {"Low", "Medium", "High", "Critical"};
+    private static final String[] DEPARTMENTS = {"Support", "Finance", "Logistics", "IT", "Sales", "Operations"};
+    private static final String[] WORDS = {
+            "account", "unable", "login", "error", "payment", "failed", "refund", "order", "delivery", "delayed",
+            "please", "help", "urgent", "issue", "customer", "invoice", "charged", "twice", "password", "reset",
+            "screen", "blank", "after", "update", "since", "yesterday", "still", "waiting", "response", "ticket"
+    };
+
+    private int rows = 10000;
+    private int clusters = 2000;
+    private double skew = 1.0;
+    private int bodyLength = 500;
+    private double singletonShare = 0.1;
+    private long seed = 42;
+
+    public ClusteredWorkbookGenerator rows(int rows) { this.rows = rows; return this; }
+    public ClusteredWorkbookGenerator clusters(int clusters) { this.clusters = clusters; return this; }
+    public ClusteredWorkbookGenerator skew(double skew) { this.skew = skew; return this; }
+    public ClusteredWorkbookGenerator bodyLength(int bodyLength) { this.bodyLength = bodyLength; return this; }
+    public ClusteredWorkbookGenerator singletonShare(double singletonShare) { this.singletonShare = singletonShare; return this; }
+    public ClusteredWorkbookGenerator seed(long seed) { this.seed = seed; return this; }
+
+    public void write(OutputStream out) throws IOException {
+        Random random = new Random(seed);
+        double[] clusterCdf = zipfCdf(clusters, skew);
+
+        // Shared strings, as in workbooks saved by Excel
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(null, 100, false, true)) {
+            Sheet sheet = workbook.createSheet("clustered_emails");
+            Row header = sheet.createRow(0);
+            for (int c = 0; c < HEADERS.length; c++) {
+                header.createCell(c).setCellValue(HEADERS[c]);
+            }
+
+            for (int r = 1; r <= rows; r++) {
+                Row row = sheet.createRow(r);
+                row.createCell(0).setCellValue(1_000_000 + r);
+                row.createCell(1).setCellValue("ML" + (100_000 + random.nextInt(900_000)));
+                row.createCell(2).setCellValue("M" + (100_000 + random.nextInt(900_000)));
+                row.createCell(3).setCellValue("T" + (100_000 + random.nextInt(900_000)));
+                row.createCell(4).setCellValue(pick(random, DISPOSITIONS));
+                row.createCell(5).setCellValue(pick(random, SUB_DISPOSITIONS));
+                row.createCell(6).setCellValue(pick(random, PRIORITIES));
+                row.createCell(7).setCellValue(text(random, 40));
+                row.createCell(8).setCellValue(pick(random, DEPARTMENTS));
+                row.createCell(9).setCellValue(text(random, bodyLength));
+                row.createCell(10).setCellValue(random.nextInt(3) == 0 ? text(random, bodyLength / 4) : "");
+
+                int cluster;
+                if (random.nextDouble() < singletonShare) {
+                    cluster = ClusterRenderer.SINGLETON_CLUSTER;
+                } else {
+                    int index = Arrays.binarySearch(clusterCdf, random.nextDouble());
+                    cluster = Math.min(index >= 0 ? index : -index - 1, clusters - 1);
+                }
+                row.createCell(11).setCellValue(cluster);
+            }
+
+            workbook.write(out);
+            workbook.dispose();
+        }
+    }
+
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Usage: {@code ClusteredWorkbookGenerator <output.xlsx> [rows] [clusters] [skew] [bodyLength] [singletonShare] [seed]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ClusteredWorkbookGenerator <output.xlsx> [rows] [clusters] [skew] [bodyLength] [singletonShare] [seed]");
+            System.exit(1);
+        }
+        ClusteredWorkbookGenerator generator = new ClusteredWorkbookGenerator();
+        if (args.length > 1) generator.rows(Integer.parseInt(args[1]));
+        if (args.length > 2) generator.clusters(Integer.parseInt(args[2]));
+        if (args.length > 3) generator.skew(Double.parseDouble(args[3]));
+        if (args.length > 4) generator.bodyLength(Integer.parseInt(args[4]));
+        if (args.length > 5) generator.singletonShare(Double.parseDouble(args[5]));
+        if (args.length > 6) generator.seed(Long.parseLong(args[6]));
+        try (OutputStream out = new FileOutputStream(args[0])) {
+            generator.write(out);
+        }
+        System.out.println("Workbook written to: " + args[0]);
+    }
+}
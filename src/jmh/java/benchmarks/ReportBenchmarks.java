@@ -0,0 +1,115 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One benchmark per report stage, each run against the same generated workbook: reading the
+ * XLSX, grouping rows by cluster, rendering cluster paragraphs and writing the DOCX.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class ReportBenchmarks {
+
+    /**
+     * The generated workbook. Setup also reads, groups and renders it once, so each benchmark
+     * only measures its own stage.
+     */
+    @State(Scope.Benchmark)
+    public static class Workbook {
+        @Param("20000")
+        public int rows;
+
+        @Param("5000")
+        public int clusters;
+
+        @Param("1.0")
+        public double skew;
+
+        @Param("500")
+        public int bodyLength;
+
+        @Param("0.1")
+        public double singletonShare;
+
+        ReportStages stages;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            stages = ReportStages.load();
+            stages.setUp(rows, clusters, skew, bodyLength, singletonShare);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            stages.tearDown();
+        }
+    }
+
+    /** Memory budget for grouping; a small budget exercises the spill and merge path. */
+    @State(Scope.Benchmark)
+    public static class Grouping {
+        @Param({"unbounded", "4m"})
+        public String memoryBudget;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Output {
+        @Param({"POI", "STREAMING"})
+        public String writer;
+
+        Path path;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            path = Files.createTempFile("benchmark-", ".docx");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /** SAX read of the sheet, including cell formatting and row validation. */
+    @Benchmark
+    public void read(Workbook workbook, Blackhole blackhole) throws IOException {
+        workbook.stages.read(blackhole::consume);
+    }
+
+    @Benchmark
+    public void group(Workbook workbook, Grouping grouping, Blackhole blackhole) throws IOException {
+        workbook.stages.group(grouping.memoryBudget, blackhole::consume);
+    }
+
+    @Benchmark
+    public void render(Workbook workbook, Blackhole blackhole) throws IOException {
+        workbook.stages.render(blackhole::consume);
+    }
+
+    /** Writes every cluster into one document; the 5000-cluster file split is not applied. */
+    @Benchmark
+    public void write(Workbook workbook, Output output) throws IOException {
+        workbook.stages.write(output.writer, output.path);
+    }
+}
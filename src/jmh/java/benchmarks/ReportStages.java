@@ -0,0 +1,39 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * The report stages as seen by {@link ReportBenchmarks}. JMH only accepts benchmarks in a named
+ * package and the report classes live in the default package, so the stages are implemented
+ * there (by {@code ClusteredReportStages}) and loaded by name.
+ */
+public interface ReportStages {
+
+    /**
+     * Generates the workbook and prepares the rows, clusters and rendered clusters the later
+     * stages start from.
+     */
+    void setUp(int rows, int clusters, double skew, int bodyLength, double singletonShare) throws IOException;
+
+    void read(Consumer<Object> sink) throws IOException;
+
+    /** Groups the prepared rows; {@code memoryBudget} is a size such as {@code 4m}, or {@code unbounded}. */
+    void group(String memoryBudget, Consumer<Object> sink) throws IOException;
+
+    void render(Consumer<Object> sink) throws IOException;
+
+    /** Writes the prepared clusters with writer {@code mode} ({@code POI} or {@code STREAMING}). */
+    void write(String mode, Path output) throws IOException;
+
+    void tearDown() throws IOException;
+
+    static ReportStages load() {
+        try {
+            return (ReportStages) Class.forName("ClusteredReportStages").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Report stages not found on the classpath", e);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Processes many workbooks in one JVM on a bounded pool of workers. Each workbook gets its own
+ * report, named after the workbook, in the output directory; at the end one summary covers the
+ * whole batch. A failing workbook is reported and does not stop the others.
+ *
+ * <p>Every worker keeps one set of {@link StreamingXlsxReader.Resources} for all the workbooks
+ * it reads. The group memory budget is shared: each of the concurrent runs gets an equal part
+ * of it, so the batch spills to disk at the same heap use as a single run.
+ */
+public class BatchProcessor {
+
+    static final String REPORT_SUFFIX = "_ClusteredEmailReport.docx";
+
+    private final ReportOptions options;
+
+    public BatchProcessor(ReportOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Outcome of one workbook: its metrics, or the error it failed with.
+     */
+    public static class FileResult {
+        private final Path workbook;
+        private final String reportPath;
+        private final RunMetrics metrics;
+        private final Exception error;
+
+        FileResult(Path workbook, String reportPath, RunMetrics metrics, Exception error) {
+            this.workbook = workbook;
+            this.reportPath = reportPath;
+            this.metrics = metrics;
+            this.error = error;
+        }
+
+        public Path getWorkbook() { return workbook; }
+        public String getReportPath() { return reportPath; }
+
+        /** Metrics of a successful run, or {@code null} if it failed. */
+        public RunMetrics getMetrics() { return metrics; }
+
+        /** Why the run failed, or {@code null} if it succeeded. */
+        public Exception getError() { return error; }
+    }
+
+    /**
+     * Expands {@code patterns} into workbook files, largest first so the longest runs start
+     * early. A pattern is a workbook, a directory (its {@code .xlsx}, {@code .csv} and
+     * {@code .tsv} files, without Excel's {@code ~$} lock files) or a glob such as
+     * {@code exports/emails_*.xlsx}.
+     */
+    public static List<Path> findWorkbooks(List<String> patterns) throws IOException {
+        Set<Path> workbooks = new LinkedHashSet<>();
+        for (String pattern : patterns) {
+            int glob = firstGlobChar(pattern);
+            if (glob >= 0) {
+                addGlobMatches(pattern, glob, workbooks);
+                continue;
+            }
+            Path path = Paths.get(pattern);
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(path, "*.{xlsx,csv,tsv}")) {
+                    for (Path entry : entries) {
+                        if (Files.isRegularFile(entry) && !entry.getFileName().toString().startsWith("~$")) {
+                            workbooks.add(entry.toAbsolutePath().normalize());
+                        }
+                    }
+                }
+            } else if (Files.isRegularFile(path)) {
+                workbooks.add(path.toAbsolutePath().normalize());
+            } else {
+                throw new IOException("Workbook or directory not found: " + pattern);
+            }
+        }
+        if (workbooks.isEmpty()) {
+            throw new IOException("No workbooks found in: " + String.join(", ", patterns));
+        }
+
+        List<Path> sorted = new ArrayList<>();
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path workbook : workbooks) {
+            sorted.add(workbook);
+            sizes.put(workbook, Files.size(workbook));
+        }
+        sorted.sort(Comparator.comparing((Path workbook) -> sizes.get(workbook)).reversed());
+        return sorted;
+    }
+
+    private static int firstGlobChar(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the files matching a glob. The directories before the first wildcard are the root of
+     * the search; the rest is matched against paths relative to it.
+     */
+    private static void addGlobMatches(String pattern, int firstGlob, Set<Path> workbooks) throws IOException {
+        int rootEnd = Math.max(pattern.lastIndexOf('/', firstGlob), pattern.lastIndexOf(File.separatorChar, firstGlob));
+        Path root = rootEnd >= 0 ? Paths.get(pattern.substring(0, rootEnd + 1)) : Paths.get(".");
+        String relative = pattern.substring(rootEnd + 1);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relative);
+        // Without "**" a match is exactly as many directories deep as the pattern
+        int depth = relative.contains("**") ? Integer.MAX_VALUE : relative.split("[/\\\\]").length;
+
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Directory not found: " + root);
+        }
+        try (Stream<Path> paths = Files.walk(root, depth)) {
+            paths.filter(path -> Files.isRegularFile(path) && matcher.matches(root.relativize(path)))
+                    .forEach(path -> workbooks.add(path.toAbsolutePath().normalize()));
+        }
+    }
+
+    /**
+     * Name of the report for {@code workbook}: the workbook's name without its extension plus
+     * {@value #REPORT_SUFFIX}, in the output directory.
+     */
+    String reportPathFor(Path workbook) {
+        String name = workbook.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String report = (dot > 0 ? name.substring(0, dot) : name) + REPORT_SUFFIX;
+        return options.getOutputDir() != null ? options.getOutputDir().resolve(report).toString() : report;
+    }
+
+    /**
+     * Processes {@code workbooks} and prints the batch summary; with a metrics file configured,
+     * the batch metrics are written there as JSON.
+     */
+    public List<FileResult> run(List<Path> workbooks) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Path> reports = new HashMap<>();
+        for (Path workbook : workbooks) {
+            Path clash = reports.putIfAbsent(reportPathFor(workbook), workbook);
+            if (clash != null) {
+                throw new IOException("Workbooks " + clash + " and " + workbook + " would both be written to "
+                        + reportPathFor(workbook) + "; rename one of them.");
+            }
+        }
+        if (options.getOutputDir() != null) {
+            Files.createDirectories(options.getOutputDir());
+        }
+
+        int threads = Math.max(1, Math.min(options.getBatchThreads(), workbooks.size()));
+        ReportOptions fileOptions = options.copy();
+        fileOptions.setGroupMemoryBudget(options.getGroupMemoryBudget() / threads);
+        // The batch writes one metrics file for all workbooks, and progress lines of concurrent
+        // runs could not be told apart
+        fileOptions.setMetricsFile(null);
+        fileOptions.setProgressInterval(0);
+
+        AtomicInteger workerNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread worker = new Thread(task, "batch-worker-" + workerNumber.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        ThreadLocal<StreamingXlsxReader.Resources> workerResources =
+                ThreadLocal.withInitial(StreamingXlsxReader.Resources::new);
+        System.out.println("Processing " + workbooks.size() + " workbooks on " + threads + " threads");
+
+        List<Future<FileResult>> pending = new ArrayList<>();
+        List<FileResult> results = new ArrayList<>();
+        try {
+            for (Path workbook : workbooks) {
+                pending.add(pool.submit(() -> process(workbook, fileOptions, workerResources.get())));
+            }
+            for (Future<FileResult> result : pending) {
+                results.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing workbooks", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println(summaryLine(results, threads, elapsed));
+        for (FileResult result : results) {
+            if (result.getError() != null) {
+                System.err.println("Failed: " + result.getWorkbook() + ": " + result.getError().getMessage());
+            }
+        }
+        if (options.getMetricsFile() != null) {
+            try (Writer out = Files.newBufferedWriter(options.getMetricsFile(), StandardCharsets.UTF_8)) {
+                out.write(toJson(results, threads, elapsed));
+                out.write('\n');
+            }
+            System.out.println("Batch metrics written to: " + options.getMetricsFile());
+        }
+        return results;
+    }
+
+    private FileResult process(Path workbook, ReportOptions fileOptions, StreamingXlsxReader.Resources resources) {
+        String reportPath = reportPathFor(workbook);
+        System.out.println("Processing " + workbook + " into " + reportPath);
+        try {
+            RunMetrics metrics = EmailProcessorXLSX.processClusteredEmailsAndSaveToDocx(
+                    workbook.toFile(), reportPath, fileOptions, resources);
+            System.out.println("Finished " + workbook + " into " + reportPath);
+            return new FileResult(workbook, reportPath, metrics, null);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error processing " + workbook + ": " + e.getMessage());
+            return new FileResult(workbook, reportPath, null, e);
+        }
+    }
+
+    static String summaryLine(List<FileResult> results, int threads, long elapsedNanos) {
+        long failed = 0;
+        long rows = 0;
+        long skipped = 0;
+        long clusters = 0;
+        long outputFiles = 0;
+        long outputBytes = 0;
+        long peakHeap = 0;
+        for (FileResult result : results) {
+            RunMetrics metrics = result.getMetrics();
+            if (metrics == null) {
+                failed++;
+                continue;
+            }
+            rows += metrics.getRowsRead();
+            skipped += metrics.getRowsSkipped();
+            clusters += metrics.getClustersWritten();
+            for (OutputShard file : metrics.getOutputFiles()) {
+                outputFiles++;
+                outputBytes += file.getBytes();
+            }
+            // Heap is sampled per run but shared by all of them, so the batch peak is the largest
+            peakHeap = Math.max(peakHeap, metrics.getPeakHeapBytes());
+        }
+        double seconds = elapsedNanos / 1e9;
+        return String.format(Locale.ROOT,
+                "Batch: %d workbooks (%d failed) on %d threads in %.1f s; %d rows (%d skipped, %.0f rows/s) into "
+                        + "%d clusters, %d output files (%d MB), peak heap %d MB",
+                results.size(), failed, threads, seconds, rows, skipped, rows / seconds, clusters,
+                outputFiles, outputBytes / (1024 * 1024), peakHeap / (1024 * 1024));
+    }
+
+    static String toJson(List<FileResult> results, int threads, long elapsedNanos) {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"elapsedMillis\": ").append(elapsedNanos / 1_000_000).append(",\n");
+        json.append("  \"threads\": ").append(threads).append(",\n");
+        json.append("  \"workbooks\": [");
+        for (int i = 0; i < results.size(); i++) {
+            FileResult result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"workbook\": ").append(RunMetrics.quote(result.getWorkbook().toString()))
+                    .append(", \"report\": ").append(RunMetrics.quote(result.getReportPath()));
+            RunMetrics metrics = result.getMetrics();
+            if (metrics == null) {
+                json.append(", \"error\": ").append(RunMetrics.quote(String.valueOf(result.getError().getMessage())));
+            } else {
+                long bytes = 0;
+                for (OutputShard file : metrics.getOutputFiles()) {
+                    bytes += file.getBytes();
+                }
+                json.append(", \"elapsedMillis\": ").append(metrics.getElapsedNanos() / 1_000_000)
+                        .append(", \"rowsRead\": ").append(metrics.getRowsRead())
+                        .append(", \"rowsSkipped\": ").append(metrics.getRowsSkipped())
+                        .append(", \"clusters\": ").append(metrics.getClustersWritten())
+                        .append(", \"outputFiles\": ").append(metrics.getOutputFiles().size())
+                        .append(", \"bytes\": ").append(bytes)
+                        .append(", \"peakHeapBytes\": ").append(metrics.getPeakHeapBytes());
+            }
+            json.append('}');
+        }
+        json.append(results.isEmpty() ? "]\n" : "\n  ]\n");
+        return json.append("}").toString();
+    }
+}
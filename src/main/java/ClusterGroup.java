@@ -0,0 +1,17 @@
+import java.util.List;
+
+/**
+ * The rows of one cluster, in the order they appeared in the input.
+ */
+public class ClusterGroup {
+    private final int clusterNumber;
+    private final List<EmailProcessorXLSX.EmailEntry> rows;
+
+    public ClusterGroup(int clusterNumber, List<EmailProcessorXLSX.EmailEntry> rows) {
+        this.clusterNumber = clusterNumber;
+        this.rows = rows;
+    }
+
+    public int getClusterNumber() { return clusterNumber; }
+    public List<EmailProcessorXLSX.EmailEntry> getRows() { return rows; }
+}
@@ -0,0 +1,355 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Groups rows by cluster within a fixed memory budget. Rows are buffered in a
+ * {@link CompactRowStore} with a sorted map of row indexes per cluster; when the buffer's size
+ * exceeds the budget it is written to a temp file as a run sorted by cluster. {@link #clusters()} then k-way merges the runs with what is left in memory, so clusters
+ * still come out in ascending order and rows keep their input order within each cluster. At most
+ * {@value #MAX_MERGE_RUNS} runs are read at once; beyond that, runs are first merged in passes
+ * into longer ones, so open files and read buffers stay bounded however large the input is.
+ */
+public class ClusterGrouper implements Consumer<EmailProcessorXLSX.EmailEntry>, Closeable {
+
+    /**
+     * Smallest budget the grouper works with. Below this, runs get so short that spilling and
+     * merging cost far more than the memory they save.
+     */
+    static final long MIN_MEMORY_BUDGET = 4L * 1024 * 1024;
+    private static final int MAX_MERGE_RUNS = 64;
+
+    // Runs are ranked by age so rows of the same cluster are merged in input order
+    private static final Comparator<RunReader> MERGE_ORDER = (a, b) -> a.currentCluster() != b.currentCluster()
+            ? Integer.compare(a.currentCluster(), b.currentCluster())
+            : Integer.compare(a.rank, b.rank);
+
+    private final long memoryBudgetBytes;
+    private final int pageSize;
+    private final Path tempDir;
+
+    private CompactRowStore store;
+    private TreeMap<Integer, IntList> buffer = new TreeMap<>();
+    private long indexBytes;
+    private final List<Path> runFiles = new ArrayList<>();
+    private final List<RunReader> openReaders = new ArrayList<>();
+
+    /**
+     * Creates a grouper that spills once its rows take more than {@code memoryBudgetBytes},
+     * raised to {@link #MIN_MEMORY_BUDGET} if smaller.
+     */
+    public ClusterGrouper(long memoryBudgetBytes, Path tempDir) {
+        this.memoryBudgetBytes = Math.max(memoryBudgetBytes, MIN_MEMORY_BUDGET);
+        // Several pages per run, so the unused end of the last page stays small against the budget
+        this.pageSize = (int) Math.min(CompactRowStore.PAGE_SIZE, this.memoryBudgetBytes / 8);
+        this.tempDir = tempDir;
+        this.store = new CompactRowStore(pageSize);
+    }
+
+    @Override
+    public void accept(EmailProcessorXLSX.EmailEntry entry) {
+        int row = store.add(entry);
+        IntList clusterRows = buffer.get(entry.getCluster());
+        if (clusterRows == null) {
+            clusterRows = new IntList();
+            buffer.put(entry.getCluster(), clusterRows);
+            indexBytes += 96;
+        }
+        clusterRows.add(row);
+        indexBytes += 4;
+        if (bufferedBytes() > memoryBudgetBytes) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to spill cluster rows to disk", e);
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        Path runFile = newRunFile();
+        runFiles.add(runFile);
+        long rows = 0;
+        try (DataOutputStream out = openRun(runFile)) {
+            for (IntList clusterRows : buffer.values()) {
+                for (int i = 0; i < clusterRows.size(); i++) {
+                    EmailEntryCodec.write(out, store.toEntry(clusterRows.get(i)));
+                    rows++;
+                }
+            }
+        }
+        System.out.println("Spilled " + rows + " rows (" + bufferedBytes() / (1024 * 1024) + " MB) to " + runFile);
+        store = new CompactRowStore(pageSize);
+        buffer = new TreeMap<>();
+        indexBytes = 0;
+    }
+
+    private long bufferedBytes() {
+        return store.memoryBytes() + indexBytes;
+    }
+
+    /**
+     * Returns the grouped clusters in ascending cluster order. May be called once, after all rows
+     * have been added.
+     */
+    public ClusterSource clusters() throws IOException {
+        if (runFiles.isEmpty()) {
+            Iterator<Map.Entry<Integer, IntList>> it = buffer.entrySet().iterator();
+            return () -> {
+                if (!it.hasNext()) {
+                    return null;
+                }
+                Map.Entry<Integer, IntList> entry = it.next();
+                it.remove();
+                return new ClusterGroup(entry.getKey(), materialize(entry.getValue()));
+            };
+        }
+
+        while (runFiles.size() > MAX_MERGE_RUNS) {
+            mergePass();
+        }
+
+        // The in-memory remainder holds the newest rows and ranks last
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(MERGE_ORDER);
+        for (int i = 0; i < runFiles.size(); i++) {
+            RunReader reader = new FileRunReader(i, runFiles.get(i));
+            openReaders.add(reader);
+            if (reader.current() != null) {
+                queue.add(reader);
+            }
+        }
+        RunReader memoryReader = new MemoryRunReader(runFiles.size(), store, buffer);
+        if (memoryReader.current() != null) {
+            queue.add(memoryReader);
+        }
+
+        return () -> {
+            if (queue.isEmpty()) {
+                return null;
+            }
+            int cluster = queue.peek().currentCluster();
+            List<EmailProcessorXLSX.EmailEntry> rows = new ArrayList<>();
+            while (!queue.isEmpty() && queue.peek().currentCluster() == cluster) {
+                RunReader reader = queue.poll();
+                while (reader.current() != null && reader.currentCluster() == cluster) {
+                    rows.add(reader.current());
+                    reader.advance();
+                }
+                if (reader.current() != null) {
+                    queue.add(reader);
+                }
+            }
+            return new ClusterGroup(cluster, rows);
+        };
+    }
+
+    /**
+     * Merges each group of {@value #MAX_MERGE_RUNS} consecutive runs into one. Groups are taken
+     * oldest first, so the merged runs are still in input order.
+     */
+    private void mergePass() throws IOException {
+        List<Path> runs = new ArrayList<>(runFiles);
+        List<Path> merged = new ArrayList<>();
+        for (int start = 0; start < runs.size(); start += MAX_MERGE_RUNS) {
+            List<Path> group = runs.subList(start, Math.min(start + MAX_MERGE_RUNS, runs.size()));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            Path output = newRunFile();
+            runFiles.add(output); // Deleted by close() if the pass fails
+            long rows = mergeRuns(group, output);
+            for (Path run : group) {
+                Files.delete(run);
+            }
+            merged.add(output);
+            System.out.println("Merged " + group.size() + " runs (" + rows + " rows) into " + output);
+        }
+        runFiles.clear();
+        runFiles.addAll(merged);
+    }
+
+    private static long mergeRuns(List<Path> runs, Path output) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(MERGE_ORDER);
+        List<RunReader> readers = new ArrayList<>();
+        long rows = 0;
+        try (DataOutputStream out = openRun(output)) {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new FileRunReader(i, runs.get(i));
+                readers.add(reader);
+                if (reader.current() != null) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                EmailEntryCodec.write(out, reader.current());
+                rows++;
+                reader.advance();
+                if (reader.current() != null) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        return rows;
+    }
+
+    private Path newRunFile() throws IOException {
+        return tempDir != null
+                ? Files.createTempFile(tempDir, "cluster-run-", ".bin")
+                : Files.createTempFile("cluster-run-", ".bin");
+    }
+
+    private static DataOutputStream openRun(Path runFile) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), 64 * 1024));
+    }
+
+    /**
+     * Deletes the run files.
+     */
+    @Override
+    public void close() throws IOException {
+        for (RunReader reader : openReaders) {
+            reader.close();
+        }
+        for (Path runFile : runFiles) {
+            Files.deleteIfExists(runFile);
+        }
+    }
+
+    private List<EmailProcessorXLSX.EmailEntry> materialize(IntList rows) {
+        List<EmailProcessorXLSX.EmailEntry> entries = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            entries.add(store.toEntry(rows.get(i)));
+        }
+        return entries;
+    }
+
+    /**
+     * Supplies clusters one at a time; {@link #next()} returns {@code null} when exhausted.
+     */
+    public interface ClusterSource {
+        ClusterGroup next() throws IOException;
+    }
+
+    private abstract static class RunReader implements Closeable {
+        final int rank;
+
+        RunReader(int rank) {
+            this.rank = rank;
+        }
+
+        abstract EmailProcessorXLSX.EmailEntry current();
+
+        abstract void advance() throws IOException;
+
+        int currentCluster() {
+            return current().getCluster();
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static class FileRunReader extends RunReader {
+        private final DataInputStream in;
+        private EmailProcessorXLSX.EmailEntry current;
+
+        FileRunReader(int rank, Path runFile) throws IOException {
+            super(rank);
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), 64 * 1024));
+            advance();
+        }
+
+        @Override
+        EmailProcessorXLSX.EmailEntry current() {
+            return current;
+        }
+
+        @Override
+        void advance() throws IOException {
+            current = EmailEntryCodec.read(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class MemoryRunReader extends RunReader {
+        private final CompactRowStore store;
+        private final Iterator<IntList> clusters;
+        private IntList rows;
+        private int rowPosition;
+        private EmailProcessorXLSX.EmailEntry current;
+
+        MemoryRunReader(int rank, CompactRowStore store, TreeMap<Integer, IntList> buffer) {
+            super(rank);
+            this.store = store;
+            this.clusters = buffer.values().iterator();
+            advance();
+        }
+
+        @Override
+        EmailProcessorXLSX.EmailEntry current() {
+            return current;
+        }
+
+        @Override
+        void advance() {
+            while (rows == null || rowPosition == rows.size()) {
+                if (!clusters.hasNext()) {
+                    current = null;
+                    return;
+                }
+                rows = clusters.next();
+                rowPosition = 0;
+            }
+            current = store.toEntry(rows.get(rowPosition++));
+        }
+    }
+
+    /**
+     * Growable list of primitive row indexes.
+     */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the cluster index sidecar written by {@link ClusterIndexWriter}, so single clusters can be
+ * re-rendered without reading the workbook again. Opening loads only the index (a few bytes per
+ * cluster); {@link #read} then seeks straight to the cluster's rows in the row data file.
+ *
+ * <p>Index layout, big-endian: magic, version, row data file name, the output file names, then
+ * per cluster in ascending id order its id, row count, output file number and row data offset.
+ */
+public class ClusterIndex implements Closeable {
+
+    static final int MAGIC = 0x43494458; // "CIDX"
+    static final int VERSION = 1;
+
+    private final int[] clusterIds;
+    private final int[] rowCounts;
+    private final int[] shardNumbers;
+    private final long[] offsets;
+    private final List<String> shardFiles;
+    private final FileChannel data;
+
+    private ClusterIndex(int[] clusterIds, int[] rowCounts, int[] shardNumbers, long[] offsets,
+                         List<String> shardFiles, FileChannel data) {
+        this.clusterIds = clusterIds;
+        this.rowCounts = rowCounts;
+        this.shardNumbers = shardNumbers;
+        this.offsets = offsets;
+        this.shardFiles = shardFiles;
+        this.data = data;
+    }
+
+    public static ClusterIndex open(Path indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a cluster index, or written by another version: " + indexFile);
+            }
+            Path dataFile = indexFile.resolveSibling(in.readUTF());
+            int shardCount = in.readInt();
+            List<String> shardFiles = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                shardFiles.add(in.readUTF());
+            }
+            int size = in.readInt();
+            int[] clusterIds = new int[size];
+            int[] rowCounts = new int[size];
+            int[] shardNumbers = new int[size];
+            long[] offsets = new long[size];
+            for (int i = 0; i < size; i++) {
+                clusterIds[i] = in.readInt();
+                rowCounts[i] = in.readInt();
+                shardNumbers[i] = in.readInt();
+                offsets[i] = in.readLong();
+            }
+            return new ClusterIndex(clusterIds, rowCounts, shardNumbers, offsets, shardFiles,
+                    FileChannel.open(dataFile, StandardOpenOption.READ));
+        }
+    }
+
+    /**
+     * Row data file belonging to {@code indexFile}: {@code report.clusters.idx} keeps its rows
+     * in {@code report.clusters.dat}.
+     */
+    static Path dataFileFor(Path indexFile) {
+        String name = indexFile.getFileName().toString();
+        String base = name.endsWith(".idx") ? name.substring(0, name.length() - 4) : name;
+        return indexFile.resolveSibling(base + ".dat");
+    }
+
+    public int size() {
+        return clusterIds.length;
+    }
+
+    public boolean contains(int clusterId) {
+        return Arrays.binarySearch(clusterIds, clusterId) >= 0;
+    }
+
+    /**
+     * Reads the rows of {@code clusterId} in their original order.
+     *
+     * @throws IOException if the cluster is not in the index or its rows cannot be read
+     */
+    public synchronized ClusterGroup read(int clusterId) throws IOException {
+        int i = indexOf(clusterId);
+        // Not closed: closing the stream would close the shared channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(data.position(offsets[i])), 64 * 1024));
+        List<EmailProcessorXLSX.EmailEntry> rows = new ArrayList<>(rowCounts[i]);
+        for (int r = 0; r < rowCounts[i]; r++) {
+            EmailProcessorXLSX.EmailEntry row = EmailEntryCodec.read(in);
+            if (row == null) {
+                throw new IOException("Cluster index row data is truncated at cluster " + clusterId);
+            }
+            rows.add(row);
+        }
+        return new ClusterGroup(clusterId, rows);
+    }
+
+    /**
+     * Name of the report file {@code clusterId} was written to, or {@code null} if unknown.
+     */
+    public String shardFileOf(int clusterId) throws IOException {
+        int shard = shardNumbers[indexOf(clusterId)];
+        return shard >= 0 && shard < shardFiles.size() ? shardFiles.get(shard) : null;
+    }
+
+    private int indexOf(int clusterId) throws IOException {
+        int i = Arrays.binarySearch(clusterIds, clusterId);
+        if (i < 0) {
+            throw new IOException("Cluster " + clusterId + " is not in the cluster index.");
+        }
+        return i;
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the cluster index sidecar of a report while the report is written: every cluster's rows
+ * go to a row data file as {@link EmailEntryCodec} records, and {@link #finish} writes the index
+ * of cluster ids, row data offsets and output files that {@link ClusterIndex} reads.
+ *
+ * <p>Clusters must be recorded in ascending id order, as the grouper and the sorted-input
+ * pipeline deliver them.
+ */
+public class ClusterIndexWriter implements Closeable {
+
+    private final Path indexFile;
+    private final Path dataFile;
+    private final CountingOutputStream dataBytes;
+    private final DataOutputStream data;
+
+    private int size;
+    private int[] clusterIds = new int[1024];
+    private int[] rowCounts = new int[1024];
+    private long[] offsets = new long[1024];
+    private boolean finished;
+
+    public ClusterIndexWriter(Path indexFile) throws IOException {
+        this.indexFile = indexFile;
+        this.dataFile = ClusterIndex.dataFileFor(indexFile);
+        // Counted above the buffer, so the count is the offset of the next record
+        this.dataBytes = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(dataFile), 64 * 1024));
+        this.data = new DataOutputStream(dataBytes);
+    }
+
+    /**
+     * Wraps {@code clusters} so every cluster handed out is also recorded in the index.
+     */
+    public ClusterGrouper.ClusterSource recording(ClusterGrouper.ClusterSource clusters) {
+        return () -> {
+            ClusterGroup cluster = clusters.next();
+            if (cluster != null) {
+                append(cluster);
+            }
+            return cluster;
+        };
+    }
+
+    private void append(ClusterGroup cluster) throws IOException {
+        if (size == clusterIds.length) {
+            clusterIds = Arrays.copyOf(clusterIds, size * 2);
+            rowCounts = Arrays.copyOf(rowCounts, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        if (size > 0 && cluster.getClusterNumber() <= clusterIds[size - 1]) {
+            throw new IOException("Clusters must be indexed in ascending order: cluster " + cluster.getClusterNumber()
+                    + " follows cluster " + clusterIds[size - 1]);
+        }
+        clusterIds[size] = cluster.getClusterNumber();
+        rowCounts[size] = cluster.getRows().size();
+        offsets[size] = dataBytes.count;
+        size++;
+        for (EmailProcessorXLSX.EmailEntry row : cluster.getRows()) {
+            EmailEntryCodec.write(data, row);
+        }
+    }
+
+    /**
+     * Completes the row data file and writes the index. {@code shards} are the report's output
+     * files, used to record which file each cluster was written to.
+     */
+    public void finish(List<OutputShard> shards) throws IOException {
+        data.close();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            out.writeInt(ClusterIndex.MAGIC);
+            out.writeInt(ClusterIndex.VERSION);
+            out.writeUTF(dataFile.getFileName().toString());
+            out.writeInt(shards.size());
+            for (OutputShard shard : shards) {
+                out.writeUTF(Path.of(shard.getPath()).getFileName().toString());
+            }
+            out.writeInt(size);
+            int shard = 0;
+            for (int i = 0; i < size; i++) {
+                // Shards hold ascending, contiguous cluster ranges
+                while (shard < shards.size() - 1 && clusterIds[i] > shards.get(shard).getLastCluster()) {
+                    shard++;
+                }
+                out.writeInt(clusterIds[i]);
+                out.writeInt(rowCounts[i]);
+                out.writeInt(shards.isEmpty() ? -1 : shard);
+                out.writeLong(offsets[i]);
+            }
+        }
+        finished = true;
+    }
+
+    /**
+     * Closes the row data file. If {@link #finish} was not reached the run failed, and the
+     * partial sidecar files are deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) {
+            return;
+        }
+        data.close();
+        Files.deleteIfExists(dataFile);
+        Files.deleteIfExists(indexFile);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the rows of one cluster into the plain text lines of its report paragraph. Lines starting
+ * with {@code **} are headings; writers render them bold without the markers.
+ */
+public class ClusterRenderer {
+
+    /** Cluster id used for unclustered rows; each of its rows is reported as its own main issue. */
+    public static final int SINGLETON_CLUSTER = 50000;
+
+    static final String MAIN_ISSUE_HEADING = "**Main Issue:**";
+    static final String SIMILAR_ISSUES_HEADING = "**Similar issues:**";
+
+    private static final int MAX_FIELD_LENGTH = 10000;
+
+    // Approximate markup and label bytes around the field values, for estimatedSize()
+    private static final int PARAGRAPH_OVERHEAD = 60;
+    private static final int ISSUE_OVERHEAD = 650;
+    private static final int SEPARATOR_SIZE = 85;
+
+    /**
+     * Returns the lines of the paragraph written for {@code clusterNumber}, or {@code null} if the
+     * cluster has no rows.
+     */
+    public static List<String> renderCluster(int clusterNumber, List<EmailProcessorXLSX.EmailEntry> clusterRows) {
+        return renderCluster(clusterNumber, clusterRows, 0);
+    }
+
+    /**
+     * Same as {@link #renderCluster(int, List)}, but with a {@code dedupThreshold} above zero,
+     * similar issues that are near-duplicates of each other (see {@link SimilarIssueDeduplicator})
+     * are written once, followed by the docket and ticket ids of the duplicates.
+     */
+    public static List<String> renderCluster(int clusterNumber, List<EmailProcessorXLSX.EmailEntry> clusterRows,
+                                             double dedupThreshold) {
+        if (clusterRows.isEmpty()) {
+            return null;
+        }
+        List<String> lines = new ArrayList<>();
+
+        if (clusterNumber == SINGLETON_CLUSTER) {
+            // Treat every issue as a main issue for cluster 50000
+            for (EmailProcessorXLSX.EmailEntry mainIssue : clusterRows) {
+                addMainIssue(lines, mainIssue);
+                lines.add("None");
+                lines.add("");
+            }
+            return lines;
+        }
+
+        EmailProcessorXLSX.EmailEntry mainIssue = null;
+        List<EmailProcessorXLSX.EmailEntry> similarIssues = new ArrayList<>();
+
+        for (EmailProcessorXLSX.EmailEntry row : clusterRows) {
+            if (row.getSolution() != null && !row.getSolution().isEmpty()) {
+                mainIssue = row;
+                break;
+            }
+        }
+
+        if (mainIssue == null) {
+            mainIssue = clusterRows.get(0);
+            similarIssues.addAll(clusterRows.subList(1, clusterRows.size()));
+        } else {
+            for (EmailProcessorXLSX.EmailEntry row : clusterRows) {
+                if (!row.equals(mainIssue)) {
+                    similarIssues.add(row);
+                }
+            }
+        }
+
+        addMainIssue(lines, mainIssue);
+        if (dedupThreshold > 0) {
+            List<List<EmailProcessorXLSX.EmailEntry>> groups = SimilarIssueDeduplicator.group(similarIssues, dedupThreshold);
+            for (int i = 0; i < groups.size(); i++) {
+                addSimilarIssue(lines, i + 1, groups.get(i));
+            }
+            return lines;
+        }
+        for (int i = 0; i < similarIssues.size(); i++) {
+            EmailProcessorXLSX.EmailEntry similarIssue = similarIssues.get(i);
+            lines.add("  " + (i + 1) + ". Issue reported : " + similarIssue.getProblemReported());
+            lines.add("     Problem Details: " + truncate(similarIssue.getProcessedBodyCleaned()));
+            lines.add("     - Docket No: " + similarIssue.getDocketNo());
+            lines.add("     - Mail List ID: " + similarIssue.getMailListId());
+            lines.add("     - Mail ID: " + similarIssue.getMailId());
+            lines.add("     - Ticket ID: " + similarIssue.getTicketId());
+            lines.add("     - Disposition: " + similarIssue.getDispositionName());
+            lines.add("     - SubDisposition: " + similarIssue.getSubDispositionName());
+            lines.add("     - Priority: " + similarIssue.getPriorityName());
+            lines.add("     - Assigned To Dept: " + similarIssue.getAssignedToDeptName());
+            lines.add("     - Solution: " + truncate(similarIssue.getSolution()));
+            lines.add("");
+        }
+        return lines;
+    }
+
+    /**
+     * Returns how many {@code ---} separator paragraphs follow the cluster's paragraph. The
+     * singleton cluster gets one per row; other clusters get one unless they are the last cluster
+     * of the report.
+     */
+    public static int separatorCount(int clusterNumber, List<EmailProcessorXLSX.EmailEntry> clusterRows, boolean lastCluster) {
+        if (clusterNumber == SINGLETON_CLUSTER) {
+            return clusterRows.size();
+        }
+        return lastCluster ? 0 : 1;
+    }
+
+    /**
+     * Estimates the {@code word/document.xml} bytes written for a cluster, its separators
+     * included, without rendering it. The estimate does not depend on whether the cluster is the
+     * last one, so every writer and thread count splits a report at the same clusters.
+     */
+    public static long estimatedSize(int clusterNumber, List<EmailProcessorXLSX.EmailEntry> clusterRows) {
+        if (clusterRows.isEmpty()) {
+            return 0;
+        }
+        long size = PARAGRAPH_OVERHEAD;
+        for (EmailProcessorXLSX.EmailEntry row : clusterRows) {
+            size += ISSUE_OVERHEAD + row.getDocketNo().length() + row.getMailListId().length()
+                    + row.getMailId().length() + row.getTicketId().length() + row.getDispositionName().length()
+                    + row.getSubDispositionName().length() + row.getPriorityName().length()
+                    + row.getProblemReported().length() + row.getAssignedToDeptName().length()
+                    + Math.min(row.getProcessedBodyCleaned().length(), MAX_FIELD_LENGTH)
+                    + Math.min(row.getSolution().length(), MAX_FIELD_LENGTH);
+        }
+        // The singleton cluster has a separator per row
+        return size + SEPARATOR_SIZE * (long) (clusterNumber == SINGLETON_CLUSTER ? clusterRows.size() : 1);
+    }
+
+    static boolean isHeading(String line) {
+        return line.startsWith(MAIN_ISSUE_HEADING) || line.startsWith(SIMILAR_ISSUES_HEADING);
+    }
+
+    /**
+     * Adds the first issue of a near-duplicate group and, if it has duplicates, their count and
+     * ids in place of their full text.
+     */
+    private static void addSimilarIssue(List<String> lines, int number, List<EmailProcessorXLSX.EmailEntry> group) {
+        EmailProcessorXLSX.EmailEntry similarIssue = group.get(0);
+        lines.add("  " + number + ". Issue reported : " + similarIssue.getProblemReported());
+        lines.add("     Problem Details: " + truncate(similarIssue.getProcessedBodyCleaned()));
+        lines.add("     - Docket No: " + similarIssue.getDocketNo());
+        lines.add("     - Mail List ID: " + similarIssue.getMailListId());
+        lines.add("     - Mail ID: " + similarIssue.getMailId());
+        lines.add("     - Ticket ID: " + similarIssue.getTicketId());
+        lines.add("     - Disposition: " + similarIssue.getDispositionName());
+        lines.add("     - SubDisposition: " + similarIssue.getSubDispositionName());
+        lines.add("     - Priority: " + similarIssue.getPriorityName());
+        lines.add("     - Assigned To Dept: " + similarIssue.getAssignedToDeptName());
+        lines.add("     - Solution: " + truncate(similarIssue.getSolution()));
+        if (group.size() > 1) {
+            StringBuilder ids = new StringBuilder();
+            for (int i = 1; i < group.size(); i++) {
+                if (i > 1) {
+                    ids.append(", ");
+                }
+                ids.append(group.get(i).getDocketNo()).append('/').append(group.get(i).getTicketId());
+            }
+            lines.add("     - Near-duplicates: " + (group.size() - 1));
+            lines.add("     - Duplicate Docket/Ticket IDs: " + ids);
+        }
+        lines.add("");
+    }
+
+    private static void addMainIssue(List<String> lines, EmailProcessorXLSX.EmailEntry mainIssue) {
+        String processedBody = mainIssue.getProcessedBodyCleaned();
+        lines.add(MAIN_ISSUE_HEADING);
+        lines.add(mainIssue.getProblemReported());
+        lines.add("");
+        lines.add("Problem Details:");
+        lines.add(processedBody != null && !processedBody.isEmpty() ? truncate(processedBody) : "");
+        lines.add("Disposition: " + mainIssue.getDispositionName());
+        lines.add("SubDisposition: " + mainIssue.getSubDispositionName());
+        lines.add("Priority: " + mainIssue.getPriorityName());
+        lines.add("- Docket No: " + mainIssue.getDocketNo());
+        lines.add("- Mail List ID: " + mainIssue.getMailListId());
+        lines.add("- Mail ID: " + mainIssue.getMailId());
+        lines.add("- Ticket ID: " + mainIssue.getTicketId());
+        lines.add("- Assigned To Dept: " + mainIssue.getAssignedToDeptName());
+        lines.add("");
+        lines.add("Solution:");
+        lines.add(truncate(mainIssue.getSolution()));
+        lines.add("");
+        lines.add(SIMILAR_ISSUES_HEADING);
+    }
+
+    // Truncate large fields to prevent memory issues
+    private static String truncate(String value) {
+        if (value.length() > MAX_FIELD_LENGTH) {
+            return value.substring(0, MAX_FIELD_LENGTH) + "... [Truncated]";
+        }
+        return value;
+    }
+}
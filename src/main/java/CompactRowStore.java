@@ -0,0 +1,229 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented storage for {@link EmailProcessorXLSX.EmailEntry} rows. Cluster ids are kept in
+ * an {@code int[]}, the low-cardinality columns (disposition, sub-disposition, priority and
+ * department) as dictionary codes, and the remaining text columns as one UTF-8 record per row in
+ * shared byte pages. A stored row costs a few dozen bytes plus its text, instead of an object with
+ * eleven {@code String}s.
+ *
+ * <p>Rows are addressed by the index returned from {@link #add}. The accessors decode a single
+ * column; {@link #toEntry} materializes a full entry for rendering.
+ */
+public class CompactRowStore {
+
+    /** Default text page size; a store for a small memory budget uses smaller pages. */
+    static final int PAGE_SIZE = 1 << 20;
+    private static final int TEXT_COLUMNS = 7;
+
+    // Indexes into a row's text record
+    private static final int DOCKET_NO = 0;
+    private static final int MAIL_LIST_ID = 1;
+    private static final int MAIL_ID = 2;
+    private static final int TICKET_ID = 3;
+    private static final int PROBLEM_REPORTED = 4;
+    private static final int PROCESSED_BODY_CLEANED = 5;
+    private static final int SOLUTION = 6;
+
+    private final Dictionary dispositions = new Dictionary();
+    private final Dictionary subDispositions = new Dictionary();
+    private final Dictionary priorities = new Dictionary();
+    private final Dictionary departments = new Dictionary();
+
+    private int size;
+    private int[] clusters = new int[1024];
+    private int[] dispositionCodes = new int[1024];
+    private int[] subDispositionCodes = new int[1024];
+    private int[] priorityCodes = new int[1024];
+    private int[] departmentCodes = new int[1024];
+    // Page index in the high 32 bits, offset within the page in the low 32 bits
+    private long[] textAddresses = new long[1024];
+
+    private final int pageSize;
+    private final List<byte[]> pages = new ArrayList<>();
+    private byte[] currentPage;
+    private int pagePosition;
+    private long textBytes;
+
+    public CompactRowStore() {
+        this(PAGE_SIZE);
+    }
+
+    /**
+     * Creates a store whose text pages hold {@code pageSize} bytes; a longer row gets a page of
+     * its own.
+     */
+    public CompactRowStore(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Appends a row and returns its index.
+     */
+    public int add(EmailProcessorXLSX.EmailEntry entry) {
+        if (size == clusters.length) {
+            int capacity = size * 2;
+            clusters = Arrays.copyOf(clusters, capacity);
+            dispositionCodes = Arrays.copyOf(dispositionCodes, capacity);
+            subDispositionCodes = Arrays.copyOf(subDispositionCodes, capacity);
+            priorityCodes = Arrays.copyOf(priorityCodes, capacity);
+            departmentCodes = Arrays.copyOf(departmentCodes, capacity);
+            textAddresses = Arrays.copyOf(textAddresses, capacity);
+        }
+        clusters[size] = entry.getCluster();
+        dispositionCodes[size] = dispositions.encode(entry.getDispositionName());
+        subDispositionCodes[size] = subDispositions.encode(entry.getSubDispositionName());
+        priorityCodes[size] = priorities.encode(entry.getPriorityName());
+        departmentCodes[size] = departments.encode(entry.getAssignedToDeptName());
+        textAddresses[size] = appendText(entry.getDocketNo(), entry.getMailListId(), entry.getMailId(),
+                entry.getTicketId(), entry.getProblemReported(), entry.getProcessedBodyCleaned(), entry.getSolution());
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCluster(int row) { return clusters[row]; }
+    public String getDocketNo(int row) { return text(row, DOCKET_NO); }
+    public String getMailListId(int row) { return text(row, MAIL_LIST_ID); }
+    public String getMailId(int row) { return text(row, MAIL_ID); }
+    public String getTicketId(int row) { return text(row, TICKET_ID); }
+    public String getDispositionName(int row) { return dispositions.decode(dispositionCodes[row]); }
+    public String getSubDispositionName(int row) { return subDispositions.decode(subDispositionCodes[row]); }
+    public String getPriorityName(int row) { return priorities.decode(priorityCodes[row]); }
+    public String getProblemReported(int row) { return text(row, PROBLEM_REPORTED); }
+    public String getAssignedToDeptName(int row) { return departments.decode(departmentCodes[row]); }
+    public String getProcessedBodyCleaned(int row) { return text(row, PROCESSED_BODY_CLEANED); }
+    public String getSolution(int row) { return text(row, SOLUTION); }
+
+    /**
+     * Materializes row {@code row} as an entry, decoding its text record once.
+     */
+    public EmailProcessorXLSX.EmailEntry toEntry(int row) {
+        String[] text = new String[TEXT_COLUMNS];
+        long address = textAddresses[row];
+        byte[] page = pages.get((int) (address >>> 32));
+        int position = (int) address;
+        for (int i = 0; i < TEXT_COLUMNS; i++) {
+            int length = readLength(page, position);
+            position += lengthSize(length);
+            text[i] = new String(page, position, length, StandardCharsets.UTF_8);
+            position += length;
+        }
+        return new EmailProcessorXLSX.EmailEntry(text[DOCKET_NO], text[MAIL_LIST_ID], text[MAIL_ID], text[TICKET_ID],
+                getDispositionName(row), getSubDispositionName(row), getPriorityName(row), text[PROBLEM_REPORTED],
+                getAssignedToDeptName(row), text[PROCESSED_BODY_CLEANED], text[SOLUTION], clusters[row]);
+    }
+
+    /**
+     * Heap held by the store: column arrays, text records and dictionary entries. Only the used
+     * part of the text pages counts, so a freshly allocated page does not push a small budget over
+     * on the row that opened it.
+     */
+    public long memoryBytes() {
+        return (long) clusters.length * (5 * 4 + 8) + textBytes
+                + dispositions.memoryBytes() + subDispositions.memoryBytes()
+                + priorities.memoryBytes() + departments.memoryBytes();
+    }
+
+    private long appendText(String... values) {
+        byte[][] encoded = new byte[values.length][];
+        int recordLength = 0;
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+            recordLength += lengthSize(encoded[i].length) + encoded[i].length;
+        }
+
+        if (currentPage == null || pagePosition + recordLength > currentPage.length) {
+            currentPage = new byte[Math.max(pageSize, recordLength)];
+            pages.add(currentPage);
+            pagePosition = 0;
+        }
+        textBytes += recordLength;
+
+        long address = ((long) (pages.size() - 1) << 32) | pagePosition;
+        for (byte[] value : encoded) {
+            pagePosition = writeLength(currentPage, pagePosition, value.length);
+            System.arraycopy(value, 0, currentPage, pagePosition, value.length);
+            pagePosition += value.length;
+        }
+        return address;
+    }
+
+    private String text(int row, int column) {
+        long address = textAddresses[row];
+        byte[] page = pages.get((int) (address >>> 32));
+        int position = (int) address;
+        for (int i = 0; i < column; i++) {
+            int length = readLength(page, position);
+            position += lengthSize(length) + length;
+        }
+        int length = readLength(page, position);
+        return new String(page, position + lengthSize(length), length, StandardCharsets.UTF_8);
+    }
+
+    // Lengths are stored as unsigned LEB128 varints: short fields cost a single length byte.
+
+    private static int lengthSize(int length) {
+        int bytes = 1;
+        while ((length >>>= 7) != 0) {
+            bytes++;
+        }
+        return bytes;
+    }
+
+    private static int writeLength(byte[] page, int position, int length) {
+        while ((length & ~0x7F) != 0) {
+            page[position++] = (byte) ((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        page[position++] = (byte) length;
+        return position;
+    }
+
+    private static int readLength(byte[] page, int position) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = page[position++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return length;
+    }
+
+    /**
+     * Assigns a dense int code to each distinct value of a column.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private long valueChars;
+
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+                valueChars += value.length();
+            }
+            return code;
+        }
+
+        String decode(int code) {
+            return values.get(code);
+        }
+
+        long memoryBytes() {
+            return values.size() * 96L + valueChars;
+        }
+    }
+}
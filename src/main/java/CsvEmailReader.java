@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a clustered email export saved as CSV, or as TSV for files ending in {@code .tsv}. The
+ * file is memory-mapped and parsed byte by byte; strings are only created for the required
+ * columns. Fields follow RFC 4180: a quoted field may contain delimiters, line breaks and
+ * doubled quotes, so multi-line bodies survive. The text must be UTF-8.
+ *
+ * <p>Columns are found by header name and rows are skipped by the same rules as in
+ * {@link StreamingXlsxReader}: the cluster must be a number, and values are trimmed. Blank lines
+ * are ignored, like empty sheet rows.
+ */
+public class CsvEmailReader implements EmailRowSource {
+
+    /** Most of the file mapped at once; a record is never split between two windows. */
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+
+    private final Path file;
+    private final RunMetrics metrics;
+    private final byte delimiter;
+
+    // Fields of the current record as offsets into the mapped window
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private boolean[] fieldEscaped = new boolean[32];
+    private int fieldCount;
+    private byte[] scratch = new byte[1024];
+
+    public CsvEmailReader(Path file, RunMetrics metrics) {
+        this.file = file;
+        this.metrics = metrics;
+        this.delimiter = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".tsv") ? (byte) '\t' : (byte) ',';
+    }
+
+    /**
+     * Whether {@code file} is read as delimited text rather than as a workbook.
+     */
+    public static boolean isDelimitedText(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".csv") || name.endsWith(".tsv");
+    }
+
+    @Override
+    public void readEntries(Consumer<EmailProcessorXLSX.EmailEntry> sink) throws IOException {
+        int[] slots = null;
+        String[] rowValues = new String[StreamingXlsxReader.REQUIRED_COLUMNS.length];
+        int recordNumber = 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long windowStart = 0;
+            while (windowStart < size) {
+                long windowLength = Math.min(size - windowStart, WINDOW_SIZE);
+                boolean lastWindow = windowStart + windowLength == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+                int limit = (int) windowLength;
+                int position = windowStart == 0 ? byteOrderMarkLength(window, limit) : 0;
+
+                while (position < limit) {
+                    int next = parseRecord(window, position, limit, lastWindow);
+                    if (next < 0) {
+                        // The record runs past the window; map the next window from its start
+                        if (position == 0) {
+                            throw new IOException("CSV record at byte " + windowStart + " is larger than "
+                                    + (WINDOW_SIZE >> 20) + " MB.");
+                        }
+                        break;
+                    }
+                    position = next;
+                    if (fieldCount == 1 && fieldStarts[0] == fieldEnds[0] && !fieldEscaped[0]) {
+                        continue;
+                    }
+                    recordNumber++;
+
+                    if (slots == null) {
+                        slots = resolveHeader(window);
+                        continue;
+                    }
+                    Arrays.fill(rowValues, "");
+                    for (int field = 0; field < fieldCount && field < slots.length; field++) {
+                        if (slots[field] >= 0) {
+                            rowValues[slots[field]] = fieldValue(window, field).trim();
+                        }
+                    }
+                    handleRow(rowValues, recordNumber, sink);
+                }
+                windowStart += position;
+            }
+        }
+        if (slots == null) {
+            throw new IOException("CSV data is empty or header row is missing.");
+        }
+    }
+
+    /**
+     * Maps each field of the header record to its slot in
+     * {@link StreamingXlsxReader#REQUIRED_COLUMNS}, or {@code -1} for columns that are not needed.
+     */
+    private int[] resolveHeader(MappedByteBuffer window) throws IOException {
+        Map<String, Integer> headerMap = new HashMap<>();
+        for (int field = 0; field < fieldCount; field++) {
+            headerMap.put(fieldValue(window, field).trim(), field);
+        }
+        int[] columnIndexes = StreamingXlsxReader.resolveColumns(headerMap, "CSV");
+        int[] slots = new int[fieldCount];
+        Arrays.fill(slots, -1);
+        for (int slot = 0; slot < columnIndexes.length; slot++) {
+            slots[columnIndexes[slot]] = slot;
+        }
+        return slots;
+    }
+
+    private void handleRow(String[] values, int recordNumber, Consumer<EmailProcessorXLSX.EmailEntry> sink) {
+        String cluster = values[StreamingXlsxReader.CLUSTER_COLUMN];
+        EmailProcessorXLSX.EmailEntry entry;
+        try {
+            if (!NUMBER.matcher(cluster).matches()) {
+                System.err.println("Warning: Skipping row " + recordNumber + " due to invalid or missing cluster number format: " + cluster);
+                metrics.rowSkipped(RunMetrics.SKIP_INVALID_CLUSTER);
+                return;
+            }
+            entry = new EmailProcessorXLSX.EmailEntry(values[0], values[1], values[2], values[3], values[4],
+                    values[5], values[6], values[7], values[8], values[9], values[10],
+                    (int) Double.parseDouble(cluster));
+        } catch (Exception e) {
+            System.err.println("Warning: Skipping row " + recordNumber + " due to data parsing error: " + e.getMessage());
+            metrics.rowSkipped(RunMetrics.SKIP_PARSE_ERROR);
+            return;
+        }
+        metrics.rowRead();
+        sink.accept(entry);
+    }
+
+    /**
+     * Finds the fields of the record starting at {@code position} and returns the position after
+     * its line break, or {@code -1} if the record may continue past the end of a window that is
+     * not the last one. A closing quote is taken to end the field; anything between it and the
+     * next delimiter is ignored.
+     */
+    private int parseRecord(MappedByteBuffer in, int position, int limit, boolean lastWindow) {
+        fieldCount = 0;
+        int i = position;
+        while (true) {
+            int start;
+            int end;
+            boolean escaped = false;
+            if (i < limit && in.get(i) == '"') {
+                start = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        if (!lastWindow) {
+                            return -1;
+                        }
+                        break; // Unterminated quote: the field runs to the end of the file
+                    }
+                    if (in.get(i) == '"') {
+                        if (i + 1 >= limit && !lastWindow) {
+                            return -1;
+                        }
+                        if (i + 1 < limit && in.get(i + 1) == '"') {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                end = i;
+                // Skip the closing quote and anything up to the delimiter
+                while (i < limit && in.get(i) != delimiter && in.get(i) != '\n' && in.get(i) != '\r') {
+                    i++;
+                }
+            } else {
+                start = i;
+                while (i < limit && in.get(i) != delimiter && in.get(i) != '\n' && in.get(i) != '\r') {
+                    i++;
+                }
+                end = i;
+            }
+            addField(start, end, escaped);
+
+            if (i >= limit) {
+                return lastWindow ? i : -1;
+            }
+            byte b = in.get(i);
+            if (b == delimiter) {
+                i++;
+            } else if (b == '\n') {
+                return i + 1;
+            } else {
+                // \r or \r\n
+                if (i + 1 >= limit) {
+                    return lastWindow ? i + 1 : -1;
+                }
+                return in.get(i + 1) == '\n' ? i + 2 : i + 1;
+            }
+        }
+    }
+
+    private void addField(int start, int end, boolean escaped) {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            fieldEscaped = Arrays.copyOf(fieldEscaped, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldEscaped[fieldCount] = escaped;
+        fieldCount++;
+    }
+
+    /**
+     * Decodes a field of the current record, turning doubled quotes back into single ones.
+     */
+    private String fieldValue(MappedByteBuffer in, int field) {
+        int start = fieldStarts[field];
+        int length = fieldEnds[field] - start;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        if (!fieldEscaped[field]) {
+            in.get(start, scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        int n = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = in.get(i);
+            scratch[n++] = b;
+            if (b == '"') {
+                i++; // Skip the second quote of the pair
+            }
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private static int byteOrderMarkLength(MappedByteBuffer in, int limit) {
+        return limit >= 3 && in.get(0) == (byte) 0xEF && in.get(1) == (byte) 0xBB && in.get(2) == (byte) 0xBF ? 3 : 0;
+    }
+}
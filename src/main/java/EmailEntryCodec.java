@@ -0,0 +1,55 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary form of an {@link EmailProcessorXLSX.EmailEntry}: the cluster id followed by each text
+ * field as a length-prefixed UTF-8 string. Unlike {@code writeUTF} there is no 64 KB limit on a
+ * field.
+ */
+public class EmailEntryCodec {
+
+    public static void write(DataOutput out, EmailProcessorXLSX.EmailEntry entry) throws IOException {
+        out.writeInt(entry.getCluster());
+        writeString(out, entry.getDocketNo());
+        writeString(out, entry.getMailListId());
+        writeString(out, entry.getMailId());
+        writeString(out, entry.getTicketId());
+        writeString(out, entry.getDispositionName());
+        writeString(out, entry.getSubDispositionName());
+        writeString(out, entry.getPriorityName());
+        writeString(out, entry.getProblemReported());
+        writeString(out, entry.getAssignedToDeptName());
+        writeString(out, entry.getProcessedBodyCleaned());
+        writeString(out, entry.getSolution());
+    }
+
+    /**
+     * Reads the next entry, or returns {@code null} at a clean end of stream.
+     */
+    public static EmailProcessorXLSX.EmailEntry read(DataInput in) throws IOException {
+        int cluster;
+        try {
+            cluster = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        return new EmailProcessorXLSX.EmailEntry(readString(in), readString(in), readString(in), readString(in),
+                readString(in), readString(in), readString(in), readString(in), readString(in),
+                readString(in), readString(in), cluster);
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
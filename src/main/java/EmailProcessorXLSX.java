@@ -1,18 +1,28 @@
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.xwpf.usermodel.*;
-import org.apache.poi.xwpf.model.XWPFHeaderFooterPolicy;
-import org.openxmlformats.schemas.wordprocessingml.x2006.main.*;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class EmailProcessorXLSX {
 
+    private static final int MAX_CLUSTERS_PER_FILE = 5000; // Split into multiple files if needed
+    private static final String INDEX_SUFFIX = ".clusters.idx";
+
     public static class EmailEntry {
         private String docketNo;
         private String mailListId;
@@ -89,342 +99,553 @@ public class EmailProcessorXLSX {
      * Processes clustered email data and writes directly to DOCX to minimize memory usage.
      */
     public static void processClusteredEmailsAndSaveToDocx(InputStream inputStream, String outputPath) throws IOException {
-        try (XWPFDocument document = new XWPFDocument()) {
-            // Add page numbers to the footer
-            XWPFHeaderFooterPolicy headerFooterPolicy = new XWPFHeaderFooterPolicy(document);
-            XWPFFooter footer = headerFooterPolicy.createFooter(XWPFHeaderFooterPolicy.DEFAULT);
-            XWPFParagraph footerParagraph = footer.createParagraph();
-            footerParagraph.setAlignment(ParagraphAlignment.CENTER);
-            XWPFRun footerRun = footerParagraph.createRun();
-            footerRun.setFontFamily("Consolas");
-            footerRun.setFontSize(10);
-            CTFldChar fldCharBegin = footerRun.getCTR().addNewFldChar();
-            fldCharBegin.setFldCharType(STFldCharType.BEGIN);
-            footerRun.getCTR().addNewInstrText().setStringValue("PAGE");
-            CTFldChar fldCharEnd = footerRun.getCTR().addNewFldChar();
-            fldCharEnd.setFldCharType(STFldCharType.END);
-
-            Map<Integer, List<EmailEntry>> groupedClusters = new TreeMap<>();
-
-            // Read XLSX and group clusters
-            try (Workbook workbook = new XSSFWorkbook(inputStream)) {
-                Sheet sheet = workbook.getSheetAt(0);
-                if (sheet == null) {
-                    throw new IOException("No sheets found in the XLSX workbook.");
-                }
+        processClusteredEmailsAndSaveToDocx(inputStream, outputPath, new ReportOptions());
+    }
 
-                Row headerRow = sheet.getRow(0);
-                if (headerRow == null) {
-                    throw new IOException("XLSX data is empty or header row is missing.");
-                }
+    /**
+     * Same as {@link #processClusteredEmailsAndSaveToDocx(InputStream, String)} with explicit
+     * options; returns the run's metrics.
+     */
+    public static RunMetrics processClusteredEmailsAndSaveToDocx(InputStream inputStream, String outputPath,
+                                                                 ReportOptions options) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(inputStream);
+        } catch (InvalidFormatException e) {
+            throw new IOException("Failed to open XLSX workbook: " + e.getMessage(), e);
+        }
+        try {
+            return processClusteredEmailsAndSaveToDocx(pkg, outputPath, options, new StreamingXlsxReader.Resources());
+        } finally {
+            pkg.revert();
+        }
+    }
 
-                Map<String, Integer> headerMap = new HashMap<>();
-                for (Cell cell : headerRow) {
-                    headerMap.put(cell.getStringCellValue().trim(), cell.getColumnIndex());
-                }
+    /**
+     * Same as {@link #processClusteredEmailsAndSaveToDocx(InputStream, String)}, but opens the
+     * workbook straight from disk so its parts are inflated on demand rather than buffered. A
+     * {@code .csv} or {@code .tsv} file is read as delimited text instead; see {@link CsvEmailReader}.
+     */
+    public static void processClusteredEmailsAndSaveToDocx(File inputFile, String outputPath) throws IOException {
+        processClusteredEmailsAndSaveToDocx(inputFile, outputPath, new ReportOptions());
+    }
 
-                int docketNoIdx = headerMap.getOrDefault("docket_no", -1);
-                int mailListIdIdx = headerMap.getOrDefault("mail_list_id", -1);
-                int mailIdIdx = headerMap.getOrDefault("mail_id", -1);
-                int ticketIdIdx = headerMap.getOrDefault("ticket_id", -1);
-                int dispositionNameIdx = headerMap.getOrDefault("disposition_name", -1);
-                int subDispositionNameIdx = headerMap.getOrDefault("sub_disposition_name", -1);
-                int priorityNameIdx = headerMap.getOrDefault("priority_name", -1);
-                int problemReportedIdx = headerMap.getOrDefault("problem_reported", -1);
-                int assignedToDeptNameIdx = headerMap.getOrDefault("assigned_to_dept_name", -1);
-                int processedBodyCleanedIdx = headerMap.getOrDefault("ProcessedBody_cleaned", -1);
-                int solutionIdx = headerMap.getOrDefault("Solution", -1);
-                int clusterIdx = headerMap.getOrDefault("Cluster", -1);
-
-                if (docketNoIdx == -1 || mailListIdIdx == -1 || mailIdIdx == -1 || ticketIdIdx == -1 ||
-                        dispositionNameIdx == -1 || subDispositionNameIdx == -1 || priorityNameIdx == -1 ||
-                        problemReportedIdx == -1 || assignedToDeptNameIdx == -1 ||
-                        processedBodyCleanedIdx == -1 || solutionIdx == -1 || clusterIdx == -1) {
-                    throw new IOException("Missing one or more required columns in XLSX.");
-                }
+    public static RunMetrics processClusteredEmailsAndSaveToDocx(File inputFile, String outputPath,
+                                                                 ReportOptions options) throws IOException {
+        return processClusteredEmailsAndSaveToDocx(inputFile, outputPath, options, new StreamingXlsxReader.Resources());
+    }
 
-                for (int r = 1; r <= sheet.getLastRowNum(); r++) {
-                    Row row = sheet.getRow(r);
-                    if (row == null) {
-                        continue;
-                    }
+    /**
+     * Same as {@link #processClusteredEmailsAndSaveToDocx(File, String, ReportOptions)}, reading
+     * with {@code resources} that the caller reuses from one workbook to the next.
+     */
+    public static RunMetrics processClusteredEmailsAndSaveToDocx(File inputFile, String outputPath, ReportOptions options,
+                                                                 StreamingXlsxReader.Resources resources) throws IOException {
+        if (CsvEmailReader.isDelimitedText(inputFile.toPath())) {
+            RunMetrics metrics = new RunMetrics();
+            return processRows(new CsvEmailReader(inputFile.toPath(), metrics), metrics, outputPath, options);
+        }
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(inputFile, PackageAccess.READ);
+        } catch (InvalidFormatException | InvalidOperationException e) {
+            throw new IOException("Failed to open XLSX workbook: " + e.getMessage(), e);
+        }
+        try {
+            return processClusteredEmailsAndSaveToDocx(pkg, outputPath, options, resources);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private static RunMetrics processClusteredEmailsAndSaveToDocx(OPCPackage pkg, String outputPath, ReportOptions options,
+                                                                  StreamingXlsxReader.Resources resources) throws IOException {
+        RunMetrics metrics = new RunMetrics();
+        return processRows(new StreamingXlsxReader(pkg, metrics, resources), metrics, outputPath, options);
+    }
 
-                    try {
-                        String docketNo = getCellValueAsString(row.getCell(docketNoIdx));
-                        String mailListId = getCellValueAsString(row.getCell(mailListIdIdx));
-                        String mailId = getCellValueAsString(row.getCell(mailIdIdx));
-                        String ticketId = getCellValueAsString(row.getCell(ticketIdIdx));
-                        String dispositionName = getCellValueAsString(row.getCell(dispositionNameIdx));
-                        String subDispositionName = getCellValueAsString(row.getCell(subDispositionNameIdx));
-                        String priorityName = getCellValueAsString(row.getCell(priorityNameIdx));
-                        String problemReported = getCellValueAsString(row.getCell(problemReportedIdx));
-                        String assignedToDeptName = getCellValueAsString(row.getCell(assignedToDeptNameIdx));
-                        String processedBodyCleaned = getCellValueAsString(row.getCell(processedBodyCleanedIdx));
-                        String solution = getCellValueAsString(row.getCell(solutionIdx));
-
-                        Cell clusterCell = row.getCell(clusterIdx);
-                        int cluster = -1;
-                        if (clusterCell != null && clusterCell.getCellType() == CellType.NUMERIC) {
-                            cluster = (int) clusterCell.getNumericCellValue();
-                        } else {
-                            System.err.println("Warning: Skipping row " + (r + 1) + " due to invalid or missing cluster number format: " + getCellValueAsString(clusterCell));
-                            continue;
-                        }
-
-                        groupedClusters.computeIfAbsent(cluster, k -> new ArrayList<>()).add(
-                                new EmailEntry(docketNo, mailListId, mailId, ticketId,
-                                        dispositionName, subDispositionName, priorityName,
-                                        problemReported, assignedToDeptName, processedBodyCleaned,
-                                        solution, cluster));
-                    } catch (Exception e) {
-                        System.err.println("Warning: Skipping row " + (r + 1) + " due to data parsing error: " + e.getMessage());
-                        continue;
+    /**
+     * Groups, renders and writes the rows of {@code reader}, which counts its rows in {@code metrics}.
+     */
+    private static RunMetrics processRows(EmailRowSource reader, RunMetrics metrics, String outputPath,
+                                          ReportOptions options) throws IOException {
+        if (options.getProgressInterval() > 0) {
+            metrics.startProgress(options.getProgressInterval());
+        }
+        try {
+            try (RenderCache cache = openRenderCache(options);
+                 ClusterIndexWriter index = options.isClusterIndex()
+                         ? new ClusterIndexWriter(Paths.get(sidecarPath(outputPath, INDEX_SUFFIX))) : null) {
+                if (options.isPipelined()) {
+                    ReportPipeline.run(reader, outputPath, options, cache, metrics, index);
+                } else {
+                    try (ClusterGrouper grouper = new ClusterGrouper(options.getGroupMemoryBudget(), options.getTempDir())) {
+                        // Stream the rows and group clusters, spilling to disk past the memory budget
+                        long wall = System.nanoTime();
+                        long cpu = RunMetrics.cpuTime();
+                        reader.readEntries(grouper);
+                        metrics.addTime(RunMetrics.Phase.READ, wall, cpu);
+                        writeReport(indexed(metrics.timeGrouping(grouper.clusters()), index),
+                                outputPath, options, cache, metrics);
                     }
                 }
+                if (index != null) {
+                    index.finish(metrics.getOutputFiles());
+                    System.out.println("Cluster index written to: " + sidecarPath(outputPath, INDEX_SUFFIX));
+                }
             }
+        } catch (IOException | RuntimeException | Error e) {
+            discardOutputs(metrics);
+            throw e;
+        } finally {
+            metrics.finish();
+        }
 
-            // Process each cluster and write to DOCX incrementally
-            int clusterCount = 0;
-            int maxClustersPerFile = 5000; // Split into multiple files if needed
-            int fileCounter = 1;
-            XWPFDocument currentDocument = document;
-
-            for (Map.Entry<Integer, List<EmailEntry>> entry : groupedClusters.entrySet()) {
-                clusterCount++;
-                int clusterNumber = entry.getKey();
-                List<EmailEntry> clusterRows = entry.getValue();
-                System.out.println("Cluster " + clusterNumber + ": " + clusterRows.size() + " rows");
-
-                // Start a new document if cluster count exceeds maxClustersPerFile
-                if (clusterCount % maxClustersPerFile == 1 && clusterCount > 1) {
-                    String splitOutputPath = outputPath.replace(".docx", "_" + fileCounter + ".docx");
-                    try (FileOutputStream out = new FileOutputStream(splitOutputPath)) {
-                        currentDocument.write(out);
-                        System.out.println("DOCX file written to: " + splitOutputPath);
-                    }
-                    fileCounter++;
-                    currentDocument = new XWPFDocument();
-                    // Re-add footer to new document
-                    headerFooterPolicy = new XWPFHeaderFooterPolicy(currentDocument);
-                    footer = headerFooterPolicy.createFooter(XWPFHeaderFooterPolicy.DEFAULT);
-                    footerParagraph = footer.createParagraph();
-                    footerParagraph.setAlignment(ParagraphAlignment.CENTER);
-                    footerRun = footerParagraph.createRun();
-                    footerRun.setFontFamily("Consolas");
-                    footerRun.setFontSize(10);
-                    fldCharBegin = footerRun.getCTR().addNewFldChar();
-                    fldCharBegin.setFldCharType(STFldCharType.BEGIN);
-                    footerRun.getCTR().addNewInstrText().setStringValue("PAGE");
-                    fldCharEnd = footerRun.getCTR().addNewFldChar();
-                    fldCharEnd.setFldCharType(STFldCharType.END);
+        publishOutputs(metrics);
+        System.out.println(metrics.summaryLine());
+        if (options.getShardTargetBytes() > 0) {
+            String manifest = sidecarPath(outputPath, ".manifest.json");
+            Path stagedManifest = Paths.get(stagedPath(manifest));
+            ReportManifest.write(stagedManifest, outputPath, options.getShardTargetBytes(), metrics.getOutputFiles());
+            Files.move(stagedManifest, Paths.get(manifest), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Shard manifest written to: " + manifest);
+        }
+        if (options.getMetricsFile() != null) {
+            metrics.writeJson(options.getMetricsFile());
+            System.out.println("Run metrics written to: " + options.getMetricsFile());
+        }
+        return metrics;
+    }
+
+    /**
+     * Writes a report of just {@code clusterIds}, in that order, from the cluster index that a run
+     * with {@link ReportOptions#setClusterIndex} left next to its report. The workbook is not
+     * read: each cluster's rows are read straight from the index's row data file.
+     */
+    public static RunMetrics renderClustersFromIndex(Path indexFile, List<Integer> clusterIds, String outputPath,
+                                                     ReportOptions options) throws IOException {
+        RunMetrics metrics = new RunMetrics();
+        try (ClusterIndex index = ClusterIndex.open(indexFile);
+             RenderCache cache = openRenderCache(options)) {
+            for (int clusterId : clusterIds) {
+                if (!index.contains(clusterId)) {
+                    throw new IOException("Cluster " + clusterId + " is not in the cluster index.");
                 }
+                System.out.println("Cluster " + clusterId + " is in report file: " + index.shardFileOf(clusterId));
+            }
+            Iterator<Integer> ids = clusterIds.iterator();
+            writeReport(() -> ids.hasNext() ? index.read(ids.next()) : null, outputPath, options, cache, metrics);
+        } catch (IOException | RuntimeException | Error e) {
+            discardOutputs(metrics);
+            throw e;
+        } finally {
+            metrics.finish();
+        }
+        publishOutputs(metrics);
+        System.out.println(metrics.summaryLine());
+        return metrics;
+    }
 
-                XWPFParagraph paragraph = currentDocument.createParagraph();
-                List<String> lines;
-
-                if (clusterNumber == 50000) {
-                    // Treat every issue as a main issue for cluster 50000
-                    for (EmailEntry mainIssue : clusterRows) {
-                        lines = new ArrayList<>();
-                        StringBuilder problemDetailsContent = new StringBuilder();
-                        if (mainIssue.getProcessedBodyCleaned() != null && !mainIssue.getProcessedBodyCleaned().isEmpty()) {
-                            // Truncate large fields to prevent memory issues
-                            String processedBody = mainIssue.getProcessedBodyCleaned();
-                            if (processedBody.length() > 10000) {
-                                processedBody = processedBody.substring(0, 10000) + "... [Truncated]";
-                            }
-                            problemDetailsContent.append(processedBody);
-                        }
-
-                        lines.add("**Main Issue:**");
-                        lines.add(mainIssue.getProblemReported());
-                        lines.add("");
-                        lines.add("Problem Details:");
-                        lines.add(problemDetailsContent.toString());
-                        lines.add("Disposition: " + mainIssue.getDispositionName());
-                        lines.add("SubDisposition: " + mainIssue.getSubDispositionName());
-                        lines.add("Priority: " + mainIssue.getPriorityName());
-                        lines.add("- Docket No: " + mainIssue.getDocketNo());
-                        lines.add("- Mail List ID: " + mainIssue.getMailListId());
-                        lines.add("- Mail ID: " + mainIssue.getMailId());
-                        lines.add("- Ticket ID: " + mainIssue.getTicketId());
-                        lines.add("- Assigned To Dept: " + mainIssue.getAssignedToDeptName());
-                        lines.add("");
-                        lines.add("Solution:");
-                        String solution = mainIssue.getSolution();
-                        if (solution.length() > 10000) {
-                            solution = solution.substring(0, 10000) + "... [Truncated]";
-                        }
-                        lines.add(solution);
-                        lines.add("");
-                        lines.add("**Similar issues:**");
-                        lines.add("None");
-                        lines.add("");
-
-                        // Write lines to paragraph
-                        for (String line : lines) {
-                            XWPFRun run = paragraph.createRun();
-                            run.setFontFamily("Consolas");
-                            run.setFontSize(10);
-                            if (line.startsWith("**Main Issue:**") || line.startsWith("**Similar issues:**")) {
-                                run.setBold(true);
-                                run.setText(line.replace("**", ""));
-                            } else {
-                                run.setText(line);
-                            }
-                            run.addBreak();
-                        }
-
-                        // Add separator within the same document
-                        if (clusterCount < groupedClusters.size() || !clusterRows.isEmpty()) {
-                            XWPFParagraph separator = currentDocument.createParagraph();
-                            XWPFRun separatorRun = separator.createRun();
-                            separatorRun.setFontFamily("Consolas");
-                            separatorRun.setFontSize(10);
-                            separatorRun.setText("---");
-                            separatorRun.addBreak();
-                        }
-                    }
-                } else {
-                    // Original logic for other clusters
-                    EmailEntry mainIssue = null;
-                    List<EmailEntry> similarIssues = new ArrayList<>();
-
-                    for (EmailEntry row : clusterRows) {
-                        if (row.getSolution() != null && !row.getSolution().isEmpty()) {
-                            mainIssue = row;
-                            break;
-                        }
-                    }
+    /**
+     * Records the clusters handed out by {@code clusters} in {@code index}, if there is one.
+     */
+    static ClusterGrouper.ClusterSource indexed(ClusterGrouper.ClusterSource clusters, ClusterIndexWriter index) {
+        return index != null ? index.recording(clusters) : clusters;
+    }
 
-                    if (mainIssue == null) {
-                        if (!clusterRows.isEmpty()) {
-                            mainIssue = clusterRows.get(0);
-                            similarIssues.addAll(clusterRows.subList(1, clusterRows.size()));
-                        } else {
-                            continue;
-                        }
-                    } else {
-                        for (EmailEntry row : clusterRows) {
-                            if (!row.equals(mainIssue)) {
-                                similarIssues.add(row);
-                            }
-                        }
-                    }
+    /**
+     * Opens the render cache if one is configured. Cached fragments are streaming-writer markup,
+     * so the cache is ignored for the POI writer.
+     */
+    private static RenderCache openRenderCache(ReportOptions options) throws IOException {
+        if (options.getRenderCacheDir() == null) {
+            return null;
+        }
+        if (options.getWriterMode() != ReportWriter.Mode.STREAMING) {
+            System.err.println("Warning: The render cache requires --writer=streaming; rendering every cluster.");
+            return null;
+        }
+        return new RenderCache(options.getRenderCacheDir(), options.getRenderCacheSize(), options.getDedupThreshold());
+    }
 
-                    StringBuilder problemDetailsContent = new StringBuilder();
-                    if (mainIssue.getProcessedBodyCleaned() != null && !mainIssue.getProcessedBodyCleaned().isEmpty()) {
-                        String processedBody = mainIssue.getProcessedBodyCleaned();
-                        if (processedBody.length() > 10000) {
-                            processedBody = processedBody.substring(0, 10000) + "... [Truncated]";
-                        }
-                        problemDetailsContent.append(processedBody);
-                    }
+    static void writeReport(ClusterGrouper.ClusterSource clusters, String outputPath,
+                            ReportOptions options, RenderCache cache, RunMetrics metrics) throws IOException {
+        if (options.getRenderThreads() > 1) {
+            writeReportInParallel(clusters, outputPath, options, cache, metrics);
+            return;
+        }
 
-                    lines = new ArrayList<>();
-                    lines.add("**Main Issue:**");
-                    lines.add(mainIssue.getProblemReported());
-                    lines.add("");
-                    lines.add("Problem Details:");
-                    lines.add(problemDetailsContent.toString());
-                    lines.add("Disposition: " + mainIssue.getDispositionName());
-                    lines.add("SubDisposition: " + mainIssue.getSubDispositionName());
-                    lines.add("Priority: " + mainIssue.getPriorityName());
-                    lines.add("- Docket No: " + mainIssue.getDocketNo());
-                    lines.add("- Mail List ID: " + mainIssue.getMailListId());
-                    lines.add("- Mail ID: " + mainIssue.getMailId());
-                    lines.add("- Ticket ID: " + mainIssue.getTicketId());
-                    lines.add("- Assigned To Dept: " + mainIssue.getAssignedToDeptName());
-                    lines.add("");
-                    lines.add("Solution:");
-                    String solution = mainIssue.getSolution();
-                    if (solution.length() > 10000) {
-                        solution = solution.substring(0, 10000) + "... [Truncated]";
-                    }
-                    lines.add(solution);
-                    lines.add("");
-                    lines.add("**Similar issues:**");
-
-                    for (int i = 0; i < similarIssues.size(); i++) {
-                        EmailEntry similarIssue = similarIssues.get(i);
-                        lines.add("  " + (i + 1) + ". Issue reported : " + similarIssue.getProblemReported());
-                        String processedBody = similarIssue.getProcessedBodyCleaned();
-                        if (processedBody.length() > 10000) {
-                            processedBody = processedBody.substring(0, 10000) + "... [Truncated]";
-                        }
-                        lines.add("     Problem Details: " + processedBody);
-                        lines.add("     - Docket No: " + similarIssue.getDocketNo());
-                        lines.add("     - Mail List ID: " + similarIssue.getMailListId());
-                        lines.add("     - Mail ID: " + similarIssue.getMailId());
-                        lines.add("     - Ticket ID: " + similarIssue.getTicketId());
-                        lines.add("     - Disposition: " + similarIssue.getDispositionName());
-                        lines.add("     - SubDisposition: " + similarIssue.getSubDispositionName());
-                        lines.add("     - Priority: " + similarIssue.getPriorityName());
-                        lines.add("     - Assigned To Dept: " + similarIssue.getAssignedToDeptName());
-                        String similarSolution = similarIssue.getSolution();
-                        if (similarSolution.length() > 10000) {
-                            similarSolution = similarSolution.substring(0, 10000) + "... [Truncated]";
-                        }
-                        lines.add("     - Solution: " + similarSolution);
-                        lines.add("");
-                    }
+        writeRenderedClusters(RenderedCluster.renderAll(clusters, cache, options.getDedupThreshold(), metrics),
+                outputPath, options, metrics);
+    }
 
-                    // Write lines to paragraph
-                    for (String line : lines) {
-                        XWPFRun run = paragraph.createRun();
-                        run.setFontFamily("Consolas");
-                        run.setFontSize(10);
-                        if (line.startsWith("**Main Issue:**") || line.startsWith("**Similar issues:**")) {
-                            run.setBold(true);
-                            run.setText(line.replace("**", ""));
-                        } else {
-                            run.setText(line);
-                        }
-                        run.addBreak();
+    /**
+     * Writes rendered clusters to DOCX incrementally, starting a new file whenever the current one
+     * is full; see {@link #startsNewFile}.
+     */
+    static void writeRenderedClusters(RenderedCluster.Source rendered, String outputPath,
+                                      ReportOptions options, RunMetrics metrics) throws IOException {
+        OutputShard shard = new OutputShard(1);
+        String currentPath = outputPath;
+        ReportWriter currentWriter = openWriter(currentPath, options);
+        boolean complete = false;
+
+        try {
+            RenderedCluster cluster;
+            while ((cluster = rendered.next()) != null) {
+                int clusterNumber = cluster.getClusterNumber();
+                System.out.println("Cluster " + clusterNumber + ": " + cluster.getRowCount() + " rows");
+
+                // Start a new document once the current one is full
+                if (startsNewFile(shard, cluster.getEstimatedSize(), options)) {
+                    String splitOutputPath = shardPath(outputPath, shard.getFileNumber());
+                    ReportWriter fullWriter = currentWriter;
+                    currentWriter = null;
+                    closeWriter(fullWriter, metrics);
+                    if (shard.getFileNumber() == 1) {
+                        // The first document was opened before we knew the report would be split
+                        Files.move(Paths.get(stagedPath(outputPath)), Paths.get(stagedPath(splitOutputPath)),
+                                StandardCopyOption.REPLACE_EXISTING);
                     }
+                    shard.written(splitOutputPath, Paths.get(stagedPath(splitOutputPath)));
+                    metrics.outputFileWritten(shard);
+                    System.out.println("DOCX file written to: " + splitOutputPath);
+                    shard = new OutputShard(shard.getFileNumber() + 1);
+                    currentPath = shardPath(outputPath, shard.getFileNumber());
+                    currentWriter = openWriter(currentPath, options);
+                }
 
-                    // Add separator within the same document
-                    if (clusterCount < groupedClusters.size()) {
-                        XWPFParagraph separator = currentDocument.createParagraph();
-                        XWPFRun separatorRun = separator.createRun();
-                        separatorRun.setFontFamily("Consolas");
-                        separatorRun.setFontSize(10);
-                        separatorRun.setText("---");
-                        separatorRun.addBreak();
-                    }
+                writeCluster(currentWriter, cluster, metrics);
+                shard.add(clusterNumber, cluster.getRowCount(), cluster.getEstimatedSize());
+            }
+            complete = true;
+        } finally {
+            // Write the final document, or drop it if the run failed
+            if (currentWriter != null) {
+                finishWriter(currentWriter, currentPath, complete, metrics);
+            }
+        }
+        String finalOutputPath = shard.getFileNumber() == 1 ? outputPath : shardPath(outputPath, shard.getFileNumber());
+        shard.written(finalOutputPath, Paths.get(stagedPath(finalOutputPath)));
+        metrics.outputFileWritten(shard);
+        System.out.println("DOCX file written to: " + finalOutputPath);
+    }
+
+    /**
+     * Tells whether a cluster whose markup is estimated at {@code clusterSize} bytes starts a new
+     * file instead of going into {@code current}. With {@link ReportOptions#getShardTargetBytes()}
+     * set, files are cut by estimated document size; otherwise every
+     * {@code MAX_CLUSTERS_PER_FILE} clusters. Clusters are never split, so a cluster larger than
+     * the target gets a file of its own.
+     */
+    static boolean startsNewFile(OutputShard current, long clusterSize, ReportOptions options) {
+        if (current.getClusters() == 0) {
+            return false;
+        }
+        if (options.getShardTargetBytes() > 0) {
+            return current.getEstimatedBytes() + clusterSize > options.getShardTargetBytes();
+        }
+        return current.getClusters() >= MAX_CLUSTERS_PER_FILE;
+    }
+
+    /**
+     * Renders output shards concurrently. Shard boundaries, file names and contents are the same
+     * as in the sequential loop; each shard is rendered and written by one pool thread. At most
+     * one shard more than there are threads is held in memory, so the report is never all on the
+     * heap at once, and the first shard to fail stops the run before further shards are read.
+     */
+    static void writeReportInParallel(ClusterGrouper.ClusterSource clusters, String outputPath,
+                                      ReportOptions options, RenderCache cache, RunMetrics metrics) throws IOException {
+        int threads = options.getRenderThreads();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore pendingShards = new Semaphore(threads + 1);
+        List<Future<?>> shardResults = new ArrayList<>();
+
+        try {
+            OutputShard shardInfo = new OutputShard(1);
+            List<ClusterGroup> shard = new ArrayList<>();
+            ClusterGroup cluster;
+            while ((cluster = clusters.next()) != null) {
+                System.out.println("Cluster " + cluster.getClusterNumber() + ": " + cluster.getRows().size() + " rows");
+                long clusterSize = ClusterRenderer.estimatedSize(cluster.getClusterNumber(), cluster.getRows());
+
+                if (startsNewFile(shardInfo, clusterSize, options)) {
+                    submitShard(pool, pendingShards, shardResults, shard, shardInfo,
+                            shardPath(outputPath, shardInfo.getFileNumber()), false, options, cache, metrics);
+                    shard = new ArrayList<>();
+                    shardInfo = new OutputShard(shardInfo.getFileNumber() + 1);
                 }
+                shard.add(cluster);
+                shardInfo.add(cluster.getClusterNumber(), cluster.getRows().size(), clusterSize);
+            }
 
-                // Periodically trigger garbage collection to free memory
-                if (clusterCount % 1000 == 0) {
-                    System.gc();
-                    System.out.println("Memory used after cluster " + clusterNumber + ": " +
-                            (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / (1024 * 1024) + " MB");
+            // An unsplit report, including an empty one, keeps the plain output name
+            String path = shardInfo.getFileNumber() == 1 ? outputPath : shardPath(outputPath, shardInfo.getFileNumber());
+            submitShard(pool, pendingShards, shardResults, shard, shardInfo, path, true, options, cache, metrics);
+
+            for (Future<?> result : shardResults) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering report shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to render report shard: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+            try {
+                // Shards still in flight record or delete their files before the caller cleans up
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void submitShard(ExecutorService pool, Semaphore pendingShards, List<Future<?>> shardResults,
+                                    List<ClusterGroup> shard, OutputShard shardInfo, String path, boolean finalShard,
+                                    ReportOptions options, RenderCache cache, RunMetrics metrics)
+            throws InterruptedException, ExecutionException {
+        pendingShards.acquire();
+        checkFinishedShards(shardResults);
+        shardResults.add(pool.submit(() -> {
+            try {
+                renderShard(shard, shardInfo, path, finalShard, options, cache, metrics);
+                return null;
+            } finally {
+                pendingShards.release();
+            }
+        }));
+    }
+
+    /**
+     * Rethrows the failure of any shard that has finished, and drops the finished ones, so only
+     * shards still in flight stay in {@code shardResults}.
+     */
+    private static void checkFinishedShards(List<Future<?>> shardResults) throws InterruptedException, ExecutionException {
+        Iterator<Future<?>> results = shardResults.iterator();
+        while (results.hasNext()) {
+            Future<?> result = results.next();
+            if (result.isDone()) {
+                result.get();
+                results.remove();
+            }
+        }
+    }
+
+    /**
+     * Writes one output file. Only the last cluster of the final shard omits its separator.
+     */
+    private static void renderShard(List<ClusterGroup> shard, OutputShard shardInfo, String path, boolean finalShard,
+                                    ReportOptions options, RenderCache cache, RunMetrics metrics) throws IOException {
+        ReportWriter writer = openWriter(path, options);
+        boolean complete = false;
+        try {
+            for (int i = 0; i < shard.size(); i++) {
+                long wall = System.nanoTime();
+                long cpu = RunMetrics.cpuTime();
+                RenderedCluster cluster = RenderedCluster.render(shard.get(i), finalShard && i == shard.size() - 1,
+                        cache, options.getDedupThreshold());
+                metrics.addTime(RunMetrics.Phase.RENDER, wall, cpu);
+                writeCluster(writer, cluster, metrics);
+            }
+            complete = true;
+        } finally {
+            finishWriter(writer, path, complete, metrics);
+        }
+        shardInfo.written(path, Paths.get(stagedPath(path)));
+        metrics.outputFileWritten(shardInfo);
+        System.out.println("DOCX file written to: " + path);
+    }
+
+    private static void writeCluster(ReportWriter writer, RenderedCluster cluster, RunMetrics metrics) throws IOException {
+        metrics.clusterWritten(cluster.getClusterNumber(), cluster.getRowCount());
+        long wall = System.nanoTime();
+        long cpu = RunMetrics.cpuTime();
+        try {
+            if (cluster.getParagraphXml() != null) {
+                if (!writer.supportsParagraphXml()) {
+                    throw new IOException("Cached paragraph markup cannot be written by " + writer.getClass().getSimpleName());
                 }
+                writer.writeParagraphXml(cluster.getParagraphXml());
+            } else if (cluster.getLines() != null) {
+                writer.writeClusterParagraph(cluster.getLines());
+            } else {
+                return;
             }
 
-            // Write the final document
-            String finalOutputPath = fileCounter == 1 ? outputPath : outputPath.replace(".docx", "_" + fileCounter + ".docx");
-            try (FileOutputStream out = new FileOutputStream(finalOutputPath)) {
-                currentDocument.write(out);
-                System.out.println("DOCX file written to: " + finalOutputPath);
+            // Add separators within the same document
+            for (int i = 0; i < cluster.getSeparatorCount(); i++) {
+                writer.writeSeparator();
             }
+        } finally {
+            metrics.addTime(RunMetrics.Phase.SERIALIZE, wall, cpu);
         }
     }
 
-    private static String getCellValueAsString(Cell cell) {
-        if (cell == null) {
-            return "";
+    /**
+     * Opens a writer for the output file {@code path}. The file is written under
+     * {@link #stagedPath} and only moved into place by {@link #publishOutputs} once the whole
+     * report is complete, so a failed run leaves the previous report as it was.
+     */
+    private static ReportWriter openWriter(String path, ReportOptions options) throws IOException {
+        try {
+            return options.getWriterMode().open(stagedPath(path), options.getCompressionLevel(), options.getCompressionThreads());
+        } catch (IOException | RuntimeException e) {
+            // A writer that fails part way through opening may already have created the file
+            discardStaged(path, e);
+            throw e;
         }
-        DataFormatter formatter = new DataFormatter();
-        return formatter.formatCellValue(cell).trim();
+    }
+
+    /**
+     * Closes the writer of output file {@code path}. If the file is not {@code complete} because
+     * the run failed, or cannot be finished, it is deleted instead of being kept.
+     */
+    private static void finishWriter(ReportWriter writer, String path, boolean complete, RunMetrics metrics)
+            throws IOException {
+        if (complete) {
+            try {
+                closeWriter(writer, metrics);
+                return;
+            } catch (IOException | RuntimeException e) {
+                discardStaged(path, e);
+                throw e;
+            }
+        }
+        try {
+            writer.close();
+        } catch (IOException | RuntimeException e) {
+            // The run has already failed; its own error is the one to report
+        }
+        Files.deleteIfExists(Paths.get(stagedPath(path)));
+    }
+
+    /**
+     * Deletes the staged file of {@code path} after {@code failure}, keeping any error in doing so
+     * with the failure.
+     */
+    private static void discardStaged(String path, Exception failure) {
+        try {
+            Files.deleteIfExists(Paths.get(stagedPath(path)));
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Where output file {@code path} is written until the report is complete.
+     */
+    static String stagedPath(String path) {
+        return path + ".partial";
+    }
+
+    /**
+     * Moves the finished output files of a run into place.
+     */
+    private static void publishOutputs(RunMetrics metrics) throws IOException {
+        for (OutputShard file : metrics.getOutputFiles()) {
+            Files.move(Paths.get(stagedPath(file.getPath())), Paths.get(file.getPath()),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Deletes the output files a failed run finished before it failed.
+     */
+    private static void discardOutputs(RunMetrics metrics) {
+        for (OutputShard file : metrics.getOutputFiles()) {
+            try {
+                Files.deleteIfExists(Paths.get(stagedPath(file.getPath())));
+            } catch (IOException e) {
+                System.err.println("Warning: Could not delete " + stagedPath(file.getPath()) + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes {@code writer}, counting the time to finish the file as serialization.
+     */
+    private static void closeWriter(ReportWriter writer, RunMetrics metrics) throws IOException {
+        long wall = System.nanoTime();
+        long cpu = RunMetrics.cpuTime();
+        try {
+            writer.close();
+        } finally {
+            metrics.addTime(RunMetrics.Phase.SERIALIZE, wall, cpu);
+        }
+    }
+
+    /**
+     * Name of the {@code fileNumber}-th output file when a report is split: the number is
+     * inserted before the file name's extension, e.g. {@code out/report_2.docx}.
+     */
+    static String shardPath(String outputPath, int fileNumber) {
+        int extension = extensionIndex(outputPath);
+        return outputPath.substring(0, extension) + "_" + fileNumber + outputPath.substring(extension);
+    }
+
+    /**
+     * Path of a file written next to the report, e.g. {@code out/report.manifest.json} for
+     * suffix {@code .manifest.json}.
+     */
+    static String sidecarPath(String outputPath, String suffix) {
+        return outputPath.substring(0, extensionIndex(outputPath)) + suffix;
+    }
+
+    /**
+     * Index of the dot starting the file name's extension, or the path length if it has none.
+     * Dots in directory names are not extensions.
+     */
+    private static int extensionIndex(String path) {
+        int nameStart = Math.max(path.lastIndexOf('/'), path.lastIndexOf(File.separatorChar)) + 1;
+        int dot = path.lastIndexOf('.');
+        return dot > nameStart ? dot : path.length();
     }
 
     public static void main(String[] args) {
-        String filePath = args.length > 0 ? args[0] : "clustered_emails.xlsx";
+        ReportOptions options = new ReportOptions();
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                try {
+                    options.apply(arg);
+                } catch (IllegalArgumentException e) {
+                    // Also covers NumberFormatException from numeric values
+                    System.err.println("Invalid option " + arg + ": " + e.getMessage());
+                    System.err.println(ReportOptions.USAGE);
+                    System.exit(2);
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
         String outputDocxPath = "ClusteredEmailReport.docx";
 
-        try (InputStream fis = new FileInputStream(new File(filePath))) {
-            processClusteredEmailsAndSaveToDocx(fis, outputDocxPath);
+        try {
+            if (options.getSelectedClusters() != null) {
+                // Re-render single clusters from the index of an earlier run
+                String indexPath = !positional.isEmpty() ? positional.get(0) : sidecarPath(outputDocxPath, INDEX_SUFFIX);
+                renderClustersFromIndex(Paths.get(indexPath), options.getSelectedClusters(), "SelectedClusters.docx", options);
+                System.out.println("Report processing complete.");
+                return;
+            }
+            if (options.getServePort() > 0) {
+                // Keep serving reports over HTTP; the server's threads keep the JVM running
+                new ReportService(options).start();
+                return;
+            }
+            if (options.getBatchThreads() > 0) {
+                // Every workbook in the given directories and glob patterns, concurrently
+                new BatchProcessor(options).run(BatchProcessor.findWorkbooks(!positional.isEmpty() ? positional : List.of(".")));
+                System.out.println("Batch processing complete.");
+                return;
+            }
+            String filePath = !positional.isEmpty() ? positional.get(0) : "clustered_emails.xlsx";
+            processClusteredEmailsAndSaveToDocx(new File(filePath), outputDocxPath, options);
             System.out.println("Report processing complete.");
         } catch (IOException e) {
             System.err.println("Error processing the file or saving DOCX: " + e.getMessage());
@@ -0,0 +1,13 @@
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * An input format that yields the valid rows of a clustered email export in input order.
+ */
+public interface EmailRowSource {
+
+    /**
+     * Hands every valid row to {@code sink}; invalid rows are skipped with a warning.
+     */
+    void readEntries(Consumer<EmailProcessorXLSX.EmailEntry> sink) throws IOException;
+}
@@ -0,0 +1,68 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * One output file of a report: the clusters it holds, its estimated document size while it is
+ * being filled, and its path and size on disk once written.
+ */
+public class OutputShard {
+    private final int fileNumber;
+    private int firstCluster = -1;
+    private int lastCluster = -1;
+    private int clusters;
+    private long rows;
+    private long estimatedBytes;
+    private String path;
+    private long bytes;
+
+    public OutputShard(int fileNumber) {
+        this.fileNumber = fileNumber;
+    }
+
+    /**
+     * Adds a cluster whose markup is estimated at {@code clusterBytes}; see
+     * {@link ClusterRenderer#estimatedSize}.
+     */
+    public void add(int clusterNumber, int rowCount, long clusterBytes) {
+        if (clusters == 0) {
+            firstCluster = clusterNumber;
+        }
+        lastCluster = clusterNumber;
+        clusters++;
+        rows += rowCount;
+        estimatedBytes += clusterBytes;
+    }
+
+    /**
+     * Records that the shard has been written to {@code path}.
+     */
+    public void written(String path) throws IOException {
+        written(path, Paths.get(path));
+    }
+
+    /**
+     * Records that the shard has been written to {@code file}, which is moved to {@code path}
+     * once the whole report is complete.
+     */
+    public void written(String path, Path file) throws IOException {
+        this.path = path;
+        this.bytes = Files.size(file);
+    }
+
+    /** Position of the file in the report, starting at 1. */
+    public int getFileNumber() { return fileNumber; }
+
+    /** First and last cluster id in the file, or {@code -1} if it is empty. */
+    public int getFirstCluster() { return firstCluster; }
+    public int getLastCluster() { return lastCluster; }
+
+    public int getClusters() { return clusters; }
+    public long getRows() { return rows; }
+    public long getEstimatedBytes() { return estimatedBytes; }
+    public String getPath() { return path; }
+
+    /** Size of the written file on disk. */
+    public long getBytes() { return bytes; }
+}
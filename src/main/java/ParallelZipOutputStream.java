@@ -0,0 +1,338 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * ZIP file writer that deflates an entry's data in independent blocks on a shared pool of
+ * threads, so compressing a large {@code word/document.xml} no longer runs on the thread writing
+ * the report. Like {@code ZipOutputStream}, entries are written one after another with
+ * {@link #putNextEntry} and {@link #closeEntry}.
+ *
+ * <p>Each block is deflated with the last 32 KB of the previous block as its dictionary and ends
+ * on a byte boundary with a sync flush, so the blocks concatenate into one ordinary deflate stream
+ * that compresses almost as well as a sequential one. Local headers are written with blank sizes
+ * and patched in place once an entry is complete, so the file needs no data descriptors and can
+ * be read by streaming ZIP readers too. Level {@code 0} stores entries uncompressed.
+ */
+public class ParallelZipOutputStream extends OutputStream {
+
+    static final int BLOCK_SIZE = 256 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int UTF8_NAMES = 1 << 11;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final FileChannel channel;
+    private final OutputStream out;
+    private final int level;
+    private final int threads;
+    private final Deflater deflater;
+    private final int dosTime;
+    private final List<Entry> entries = new ArrayList<>();
+
+    private long position;
+    private boolean finished;
+    private Entry entry;
+    private final CRC32 crc = new CRC32();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private byte[] previousBlock;
+    private final ArrayDeque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+
+    /**
+     * Opens {@code outputPath} for writing. {@code level} is a {@link Deflater} level, {@code 0}
+     * storing entries; with {@code threads} above {@code 1} up to that many blocks of an entry
+     * are deflated at once, otherwise blocks are deflated on the writing thread.
+     */
+    public ParallelZipOutputStream(String outputPath, int level, int threads) throws IOException {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.channel = FileChannel.open(Paths.get(outputPath),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+        this.level = level;
+        this.threads = threads;
+        this.deflater = threads > 1 || level == 0 ? null : new Deflater(level, true);
+        this.dosTime = dosTime(LocalDateTime.now());
+    }
+
+    private static class Entry {
+        final byte[] name;
+        final int method;
+        final long offset;
+        long crc;
+        long compressedSize;
+        long size;
+
+        Entry(String name, int method, long offset) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Deflates blocks for every open stream; the threads stay alive between reports and each
+     * keeps one deflater per level. Changing a deflater's level would not do: zlib applies the
+     * change on the next deflate call, after the dictionary was set at the old level.
+     */
+    private static class DeflatePool {
+        private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+        static final ExecutorService POOL = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                task -> {
+                    Thread thread = new Thread(task, "zip-deflate-" + THREAD_NUMBER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[Deflater.BEST_COMPRESSION + 2]);
+
+        static Deflater deflater(int level) {
+            Deflater[] deflaters = DEFLATERS.get();
+            if (deflaters[level + 1] == null) {
+                deflaters[level + 1] = new Deflater(level, true);
+            }
+            return deflaters[level + 1];
+        }
+    }
+
+    /**
+     * Closes the current entry, if any, and starts a new one named {@code name}.
+     */
+    public void putNextEntry(String name) throws IOException {
+        if (entry != null) {
+            closeEntry();
+        }
+        entry = new Entry(name, level == 0 ? STORED : DEFLATED, position);
+        crc.reset();
+        previousBlock = null;
+
+        // Sizes and CRC are patched in by closeEntry
+        ByteBuffer header = littleEndian(30 + entry.name.length);
+        header.putInt(LOCAL_HEADER).putShort((short) 20).putShort((short) UTF8_NAMES)
+                .putShort((short) entry.method).putInt(dosTime)
+                .putInt(0).putInt(0).putInt(0)
+                .putShort((short) entry.name.length).putShort((short) 0)
+                .put(entry.name);
+        writeRaw(header.array(), 0, header.capacity());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (entry == null) {
+            throw new IOException("No ZIP entry is open.");
+        }
+        crc.update(data, offset, length);
+        entry.size += length;
+        if (entry.method == STORED) {
+            writeRaw(data, offset, length);
+            return;
+        }
+        while (length > 0) {
+            int n = Math.min(length, BLOCK_SIZE - blockLength);
+            System.arraycopy(data, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            length -= n;
+            if (blockLength == BLOCK_SIZE) {
+                deflateBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Finishes the current entry: deflates what is left of it and fills in its local header.
+     */
+    public void closeEntry() throws IOException {
+        if (entry == null) {
+            return;
+        }
+        if (entry.method == DEFLATED) {
+            deflateBlock(true);
+            while (!pendingBlocks.isEmpty()) {
+                writeNextBlock();
+            }
+        }
+        entry.crc = crc.getValue();
+        entry.compressedSize = position - entry.offset - 30 - entry.name.length;
+        if (entry.size > 0xFFFFFFFFL || entry.compressedSize > 0xFFFFFFFFL || position > 0xFFFFFFFFL) {
+            throw new IOException("ZIP entry " + new String(entry.name, StandardCharsets.UTF_8) + " exceeds 4 GB; ZIP64 is not supported.");
+        }
+
+        out.flush();
+        ByteBuffer sizes = littleEndian(12);
+        sizes.putInt((int) entry.crc).putInt((int) entry.compressedSize).putInt((int) entry.size).flip();
+        long at = entry.offset + 14;
+        while (sizes.hasRemaining()) {
+            at += channel.write(sizes, at);
+        }
+        entries.add(entry);
+        entry = null;
+    }
+
+    /**
+     * Hands the filled part of the block buffer to the pool, or deflates it here when running on
+     * one thread. The last block of an entry finishes the deflate stream.
+     */
+    private void deflateBlock(boolean last) throws IOException {
+        byte[] input = block;
+        int length = blockLength;
+        byte[] dictionary = previousBlock;
+        blockLength = 0;
+
+        if (deflater != null) {
+            byte[] compressed = deflate(deflater, input, length, dictionary, last);
+            writeRaw(compressed, 0, compressed.length);
+            if (!last) {
+                // Swap buffers: this block is the next one's dictionary
+                previousBlock = input;
+                block = dictionary != null ? dictionary : new byte[BLOCK_SIZE];
+            }
+            return;
+        }
+        previousBlock = input;
+        block = new byte[BLOCK_SIZE];
+        pendingBlocks.add(DeflatePool.POOL.submit(
+                () -> deflate(DeflatePool.deflater(level), input, length, dictionary, last)));
+        // Keep a bounded number of blocks in flight, written in order
+        while (pendingBlocks.size() > threads) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        try {
+            byte[] compressed = pendingBlocks.remove().get();
+            writeRaw(compressed, 0, compressed.length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing ZIP entry", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress ZIP entry: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Deflates one block as raw deflate data. Blocks other than the last end with a sync flush,
+     * so the next block's data can follow directly.
+     */
+    static byte[] deflate(Deflater deflater, byte[] input, int length, byte[] dictionary, boolean last) {
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+        }
+        deflater.setInput(input, 0, length);
+        if (last) {
+            deflater.finish();
+        }
+
+        byte[] output = new byte[length + length / 16 + 64];
+        int outputLength = 0;
+        while (true) {
+            if (outputLength == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            int space = output.length - outputLength;
+            int n = deflater.deflate(output, outputLength, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            outputLength += n;
+            if (last ? deflater.finished() : n < space) {
+                break;
+            }
+        }
+        return Arrays.copyOf(output, outputLength);
+    }
+
+    private void writeRaw(byte[] data, int offset, int length) throws IOException {
+        out.write(data, offset, length);
+        position += length;
+    }
+
+    /**
+     * Closes the current entry and writes the central directory.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        closeEntry();
+        long directoryOffset = position;
+        for (Entry e : entries) {
+            ByteBuffer header = littleEndian(46 + e.name.length);
+            header.putInt(CENTRAL_HEADER).putShort((short) 20).putShort((short) 20)
+                    .putShort((short) UTF8_NAMES).putShort((short) e.method).putInt(dosTime)
+                    .putInt((int) e.crc).putInt((int) e.compressedSize).putInt((int) e.size)
+                    .putShort((short) e.name.length).putShort((short) 0).putShort((short) 0)
+                    .putShort((short) 0).putShort((short) 0).putInt(0)
+                    .putInt((int) e.offset)
+                    .put(e.name);
+            writeRaw(header.array(), 0, header.capacity());
+        }
+        if (entries.size() > 0xFFFF || position > 0xFFFFFFFFL) {
+            throw new IOException("ZIP file exceeds the limits of ZIP without ZIP64.");
+        }
+        ByteBuffer end = littleEndian(22);
+        end.putInt(END_OF_CENTRAL_DIRECTORY).putShort((short) 0).putShort((short) 0)
+                .putShort((short) entries.size()).putShort((short) entries.size())
+                .putInt((int) (position - directoryOffset)).putInt((int) directoryOffset)
+                .putShort((short) 0);
+        writeRaw(end.array(), 0, end.capacity());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            for (Future<byte[]> pending : pendingBlocks) {
+                pending.cancel(false);
+            }
+            if (deflater != null) {
+                deflater.end();
+            }
+            channel.close();
+        }
+    }
+
+    private static ByteBuffer littleEndian(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * MS-DOS date and time as stored in ZIP headers: date in the high, time in the low 16 bits.
+     */
+    static int dosTime(LocalDateTime time) {
+        int date = (time.getYear() - 1980) << 9 | time.getMonthValue() << 5 | time.getDayOfMonth();
+        int clock = time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() / 2;
+        return date << 16 | clock;
+    }
+}
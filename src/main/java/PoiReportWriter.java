@@ -0,0 +1,168 @@
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.poi.xwpf.model.XWPFHeaderFooterPolicy;
+import org.apache.poi.xwpf.usermodel.ParagraphAlignment;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFFooter;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.xmlbeans.XmlException;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTFldChar;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.STFldCharType;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.StylesDocument;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * {@link ReportWriter} backed by an {@link XWPFDocument}. The whole document is kept in memory
+ * and written to disk when the writer is closed. Formatting comes from the {@link ReportStyles}
+ * style sheet rather than per-run font properties.
+ */
+public class PoiReportWriter implements ReportWriter {
+
+    private static final int LINES_PER_RUN = 64;
+
+    private final String outputPath;
+    private final int compressionLevel;
+    private final int compressionThreads;
+    private final XWPFDocument document;
+
+    public PoiReportWriter(String outputPath) throws IOException {
+        this(outputPath, Deflater.DEFAULT_COMPRESSION, 1);
+    }
+
+    /**
+     * With a compression level or thread count other than the defaults, the package is written
+     * through a {@link ParallelZipOutputStream} instead of POI's own ZIP writer.
+     */
+    public PoiReportWriter(String outputPath, int compressionLevel, int compressionThreads) throws IOException {
+        this.outputPath = outputPath;
+        this.compressionLevel = compressionLevel;
+        this.compressionThreads = compressionThreads;
+        this.document = new XWPFDocument();
+        try {
+            document.createStyles().setStyles(StylesDocument.Factory.parse(ReportStyles.STYLES_XML).getStyles());
+        } catch (XmlException e) {
+            throw new IOException("Invalid report style sheet: " + e.getMessage(), e);
+        }
+
+        // Add page numbers to the footer
+        XWPFHeaderFooterPolicy headerFooterPolicy = new XWPFHeaderFooterPolicy(document);
+        XWPFFooter footer = headerFooterPolicy.createFooter(XWPFHeaderFooterPolicy.DEFAULT);
+        XWPFParagraph footerParagraph = footer.createParagraph();
+        footerParagraph.setStyle(ReportStyles.BODY);
+        footerParagraph.setAlignment(ParagraphAlignment.CENTER);
+        XWPFRun footerRun = footerParagraph.createRun();
+        CTFldChar fldCharBegin = footerRun.getCTR().addNewFldChar();
+        fldCharBegin.setFldCharType(STFldCharType.BEGIN);
+        footerRun.getCTR().addNewInstrText().setStringValue("PAGE");
+        CTFldChar fldCharEnd = footerRun.getCTR().addNewFldChar();
+        fldCharEnd.setFldCharType(STFldCharType.END);
+    }
+
+    /**
+     * Writes a {@code ReportBody} paragraph. Each heading gets its own {@code ReportHeading} run;
+     * consecutive plain lines share runs of up to {@value #LINES_PER_RUN} lines, separated by line
+     * breaks. Adding text to a run scans the run's existing children, so one run for a whole large
+     * cluster would make the paragraph quadratic to build.
+     */
+    @Override
+    public void writeClusterParagraph(List<String> lines) {
+        XWPFParagraph paragraph = document.createParagraph();
+        paragraph.setStyle(ReportStyles.BODY);
+        XWPFRun plainRun = null;
+        int plainRunLines = 0;
+        for (String line : lines) {
+            if (ClusterRenderer.isHeading(line)) {
+                XWPFRun run = paragraph.createRun();
+                run.setStyle(ReportStyles.HEADING);
+                run.setText(line.replace("**", ""));
+                run.addBreak();
+                plainRun = null;
+            } else {
+                if (plainRun == null || plainRunLines == LINES_PER_RUN) {
+                    plainRun = paragraph.createRun();
+                    plainRunLines = 0;
+                }
+                plainRun.setText(line);
+                plainRun.addBreak();
+                plainRunLines++;
+            }
+        }
+    }
+
+    @Override
+    public void writeSeparator() {
+        XWPFParagraph separator = document.createParagraph();
+        separator.setStyle(ReportStyles.SEPARATOR);
+        XWPFRun separatorRun = separator.createRun();
+        separatorRun.setText("---");
+        separatorRun.addBreak();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compressionLevel == Deflater.DEFAULT_COMPRESSION && compressionThreads == 1) {
+            try (XWPFDocument doc = document; FileOutputStream out = new FileOutputStream(outputPath)) {
+                doc.write(out);
+            }
+            return;
+        }
+        try (XWPFDocument doc = document;
+             ParallelZipOutputStream zip = new ParallelZipOutputStream(outputPath, compressionLevel, compressionThreads)) {
+            doc.write(new PackageZipStream(zip));
+        }
+    }
+
+    /**
+     * POI writes a package into a {@link ZipArchiveOutputStream} it is given instead of creating
+     * its own, entry by entry; this one hands the entries to a {@link ParallelZipOutputStream}.
+     */
+    private static class PackageZipStream extends ZipArchiveOutputStream {
+        private final ParallelZipOutputStream zip;
+
+        PackageZipStream(ParallelZipOutputStream zip) {
+            super(OutputStream.nullOutputStream());
+            this.zip = zip;
+        }
+
+        @Override
+        public void putArchiveEntry(ZipArchiveEntry entry) throws IOException {
+            zip.putNextEntry(entry.getName());
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            zip.write(b, offset, length);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            zip.write(b);
+        }
+
+        @Override
+        public void closeArchiveEntry() throws IOException {
+            zip.closeEntry();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            zip.finish();
+        }
+
+        @Override
+        public void flush() {
+            // Nothing is buffered here
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * On-disk cache of rendered cluster paragraphs, so a nightly regeneration only re-renders the
+ * clusters whose rows changed. Each entry is one file named after the cluster id and a SHA-256
+ * of the cluster's rows; a hit refreshes the file's modification time, and closing the cache
+ * evicts the least recently used files until the directory is back under its size limit.
+ *
+ * <p>Fragments are {@code word/document.xml} paragraph markup as written by
+ * {@link StreamingDocxWriter}, so the cache is only used with the streaming writer.
+ */
+public class RenderCache implements Closeable {
+
+    /** Bump when the rendered markup changes so stale fragments are never spliced in. */
+    private static final int FORMAT_VERSION = 3;
+    private static final String SUFFIX = ".frag.xml";
+    /**
+     * Names of the fragments this cache writes, {@code c<cluster>-<hash>.frag.xml}. Fragments of
+     * older versions, named {@code .xml}, still match so eviction clears them out; nothing else in
+     * the directory is ever deleted.
+     */
+    private static final Pattern FRAGMENT_NAME = Pattern.compile("c-?\\d+-[0-9a-f]{32}(\\.frag)?\\.xml");
+
+    private final Path directory;
+    private final long maxBytes;
+    private final double dedupThreshold;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Opens the cache in {@code directory}. Fragments are rendered with {@code dedupThreshold}
+     * (see {@link ReportOptions#setDedupThreshold}), which is part of each fragment's key.
+     */
+    public RenderCache(Path directory, long maxBytes, double dedupThreshold) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.dedupThreshold = dedupThreshold;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Returns the paragraph markup for {@code cluster}, rendering and storing it on a miss.
+     */
+    public String paragraphFor(ClusterGroup cluster) throws IOException {
+        Path file = directory.resolve(fileName(cluster));
+        try {
+            byte[] cached = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return new String(cached, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            // Render below
+        }
+
+        misses.incrementAndGet();
+        List<String> lines = ClusterRenderer.renderCluster(cluster.getClusterNumber(), cluster.getRows(), dedupThreshold);
+        String fragment = lines != null ? StreamingDocxWriter.paragraphXml(lines) : "";
+
+        // Write to a temp name first so a concurrent or interrupted run never sees half a fragment
+        Path temp = Files.createTempFile(directory, "fragment-", ".tmp");
+        try {
+            Files.write(temp, fragment.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return fragment;
+    }
+
+    /**
+     * Evicts least recently used fragments beyond the size limit and prints the hit/miss line.
+     */
+    @Override
+    public void close() throws IOException {
+        evict();
+        System.out.println(statsLine());
+    }
+
+    public String statsLine() {
+        long h = hits.get();
+        long m = misses.get();
+        long total = h + m;
+        return "Render cache: " + h + " hits, " + m + " misses"
+                + (total > 0 ? " (" + (100 * h / total) + "% hit rate)" : "")
+                + ", " + evictions.get() + " evicted";
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+
+    private void evict() throws IOException {
+        List<CacheFile> files = new ArrayList<>();
+        long totalBytes = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory,
+                entry -> FRAGMENT_NAME.matcher(entry.getFileName().toString()).matches())) {
+            for (Path entry : entries) {
+                CacheFile file;
+                try {
+                    file = new CacheFile(entry, Files.size(entry), Files.getLastModifiedTime(entry));
+                } catch (NoSuchFileException e) {
+                    continue; // Evicted by another run sharing the directory
+                }
+                files.add(file);
+                totalBytes += file.size;
+            }
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        files.sort(Comparator.comparing(file -> file.lastUsed));
+        for (CacheFile file : files) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            Files.deleteIfExists(file.path);
+            totalBytes -= file.size;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static class CacheFile {
+        final Path path;
+        final long size;
+        final FileTime lastUsed;
+
+        CacheFile(Path path, long size, FileTime lastUsed) {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private String fileName(ClusterGroup cluster) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(cluster.getClusterNumber());
+        if (dedupThreshold > 0) {
+            // Only deduplicated fragments carry the threshold, so existing fragments stay valid
+            out.writeDouble(dedupThreshold);
+        }
+        for (EmailProcessorXLSX.EmailEntry row : cluster.getRows()) {
+            EmailEntryCodec.write(out, row);
+        }
+        out.flush();
+
+        StringBuilder name = new StringBuilder("c").append(cluster.getClusterNumber()).append('-');
+        byte[] hash = digest.digest();
+        for (int i = 0; i < 16; i++) {
+            name.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return name.append(SUFFIX).toString();
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A cluster after rendering: its paragraph lines (or, when a {@link RenderCache} is in use, its
+ * ready-made paragraph markup) and the number of separators that follow it. Rendering and writing
+ * can run on different threads by passing these between them.
+ */
+public class RenderedCluster {
+    private final int clusterNumber;
+    private final int rowCount;
+    private final List<String> lines;
+    private final String paragraphXml;
+    private final int separatorCount;
+    private final long estimatedSize;
+
+    public RenderedCluster(int clusterNumber, int rowCount, List<String> lines, String paragraphXml,
+                           int separatorCount, long estimatedSize) {
+        this.clusterNumber = clusterNumber;
+        this.rowCount = rowCount;
+        this.lines = lines;
+        this.paragraphXml = paragraphXml;
+        this.separatorCount = separatorCount;
+        this.estimatedSize = estimatedSize;
+    }
+
+    /**
+     * Renders {@code cluster}; {@code lastCluster} tells whether it is the last of the report.
+     * With a non-null {@code cache} the paragraph markup is taken from, or added to, the cache,
+     * which then applies its own dedup threshold instead of {@code dedupThreshold}.
+     */
+    public static RenderedCluster render(ClusterGroup cluster, boolean lastCluster, RenderCache cache,
+                                         double dedupThreshold) throws IOException {
+        List<EmailProcessorXLSX.EmailEntry> rows = cluster.getRows();
+        int separators = ClusterRenderer.separatorCount(cluster.getClusterNumber(), rows, lastCluster);
+        long estimatedSize = ClusterRenderer.estimatedSize(cluster.getClusterNumber(), rows);
+        if (cache != null) {
+            return new RenderedCluster(cluster.getClusterNumber(), rows.size(), null,
+                    cache.paragraphFor(cluster), separators, estimatedSize);
+        }
+        return new RenderedCluster(cluster.getClusterNumber(), rows.size(),
+                ClusterRenderer.renderCluster(cluster.getClusterNumber(), rows, dedupThreshold), null, separators,
+                estimatedSize);
+    }
+
+    /**
+     * Renders clusters from {@code clusters} on the calling thread as they are requested, looking
+     * one cluster ahead to find the last one. Rendering time is added to {@code metrics}.
+     */
+    public static Source renderAll(ClusterGrouper.ClusterSource clusters, RenderCache cache, double dedupThreshold,
+                                   RunMetrics metrics) {
+        return new Source() {
+            private boolean started;
+            private ClusterGroup next;
+
+            @Override
+            public RenderedCluster next() throws IOException {
+                if (!started) {
+                    next = clusters.next();
+                    started = true;
+                }
+                ClusterGroup cluster = next;
+                if (cluster == null) {
+                    return null;
+                }
+                next = clusters.next();
+                long wall = System.nanoTime();
+                long cpu = RunMetrics.cpuTime();
+                RenderedCluster rendered = render(cluster, next == null, cache, dedupThreshold);
+                metrics.addTime(RunMetrics.Phase.RENDER, wall, cpu);
+                return rendered;
+            }
+        };
+    }
+
+    public int getClusterNumber() { return clusterNumber; }
+    public int getRowCount() { return rowCount; }
+
+    /**
+     * Paragraph lines, or {@code null} if the cluster had no rows or its markup came from the
+     * render cache.
+     */
+    public List<String> getLines() { return lines; }
+
+    /** Cached paragraph markup for the streaming writer, or {@code null}. */
+    public String getParagraphXml() { return paragraphXml; }
+
+    public int getSeparatorCount() { return separatorCount; }
+
+    /** {@link ClusterRenderer#estimatedSize} of the cluster, used to split the report into files. */
+    public long getEstimatedSize() { return estimatedSize; }
+
+    /**
+     * Supplies rendered clusters in report order; {@link #next()} returns {@code null} when
+     * exhausted.
+     */
+    public interface Source {
+        RenderedCluster next() throws IOException;
+    }
+}
@@ -0,0 +1,42 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Writes the JSON manifest of a sharded report: one entry per output file, in report order, with
+ * its cluster range, row count and size, so downstream consumers can pick files without opening
+ * them. File names are relative to the manifest, which is written next to the report.
+ */
+public class ReportManifest {
+
+    public static void write(Path manifest, String outputPath, long targetBytes, List<OutputShard> shards)
+            throws IOException {
+        try (Writer out = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"report\": " + RunMetrics.quote(fileName(outputPath)) + ",\n");
+            out.write("  \"targetBytes\": " + targetBytes + ",\n");
+            out.write("  \"shards\": [");
+            for (int i = 0; i < shards.size(); i++) {
+                OutputShard shard = shards.get(i);
+                out.write(i == 0 ? "\n" : ",\n");
+                out.write("    {\"file\": " + RunMetrics.quote(fileName(shard.getPath()))
+                        + ", \"firstCluster\": " + shard.getFirstCluster()
+                        + ", \"lastCluster\": " + shard.getLastCluster()
+                        + ", \"clusters\": " + shard.getClusters()
+                        + ", \"rows\": " + shard.getRows()
+                        + ", \"estimatedXmlBytes\": " + shard.getEstimatedBytes()
+                        + ", \"bytes\": " + shard.getBytes() + "}");
+            }
+            out.write(shards.isEmpty() ? "]\n" : "\n  ]\n");
+            out.write("}\n");
+        }
+    }
+
+    private static String fileName(String path) {
+        return Paths.get(path).getFileName().toString();
+    }
+}
@@ -0,0 +1,365 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Settings for a report run. Defaults reproduce the original behaviour; command line flags of the
+ * form {@code --name=value} are applied with {@link #apply(String)}.
+ */
+public class ReportOptions implements Cloneable {
+
+    /** Command line summary printed when a flag is not recognised. */
+    public static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: EmailProcessorXLSX [options] [workbook.xlsx | export.csv | export.tsv]",
+            "       EmailProcessorXLSX --batch[=THREADS] [options] [directory | glob | file ...]",
+            "       EmailProcessorXLSX --clusters=ID,... [options] [report.clusters.idx]",
+            "       EmailProcessorXLSX --serve[=PORT] [options]",
+            "Options:",
+            "  --writer=poi|streaming          how output documents are produced (default poi)",
+            "  --group-memory=SIZE             heap for grouping before rows spill to disk",
+            "  --temp-dir=DIR                  directory for spill files",
+            "  --render-threads[=N]            output files rendered concurrently",
+            "  --pipeline                      read, group, render and write as concurrent stages",
+            "  --sorted-input                  input rows are in ascending cluster order",
+            "  --render-cache=DIR              reuse rendered clusters across runs (streaming writer)",
+            "  --render-cache-size=SIZE        size the render cache is trimmed to",
+            "  --shard-size=SIZE               split the report by estimated document size",
+            "  --cluster-index                 write an index for re-rendering single clusters",
+            "  --clusters=ID,...               re-render these clusters from a cluster index",
+            "  --dedup[=THRESHOLD]             collapse near-duplicate similar issues (default 0.9)",
+            "  --compression=LEVEL|store       DOCX compression level",
+            "  --compression-threads[=N]       threads compressing each DOCX",
+            "  --metrics=FILE                  write run metrics as JSON",
+            "  --progress[=SECONDS]            print progress lines (default every 10 s)",
+            "  --batch[=THREADS]               process many workbooks concurrently",
+            "  --output-dir=DIR                directory for batch reports",
+            "  --serve[=PORT]                  run the local report service (default port 8088)",
+            "  --max-jobs=N                    reports the service builds at once (default 2)",
+            "  --job-memory=SIZE               group memory of each service job",
+            "SIZE takes an optional k, m or g suffix.");
+
+    private ReportWriter.Mode writerMode = ReportWriter.Mode.POI;
+    private long groupMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    private Path tempDir;
+    private int renderThreads = 1;
+    private boolean pipelined;
+    private boolean sortedInput;
+    private Path renderCacheDir;
+    private long renderCacheSize = 1024L * 1024 * 1024;
+    private Path metricsFile;
+    private int progressInterval;
+    private long shardTargetBytes;
+    private boolean clusterIndex;
+    private List<Integer> selectedClusters;
+    private double dedupThreshold;
+    private int batchThreads;
+    private Path outputDir;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionThreads = 1;
+    private int servePort;
+    private int maxJobs = 2;
+    private long jobMemory;
+
+    public ReportWriter.Mode getWriterMode() { return writerMode; }
+    public long getGroupMemoryBudget() { return groupMemoryBudget; }
+    public Path getTempDir() { return tempDir; }
+    public int getRenderThreads() { return renderThreads; }
+    public boolean isPipelined() { return pipelined; }
+    public boolean isSortedInput() { return sortedInput; }
+    public Path getRenderCacheDir() { return renderCacheDir; }
+    public long getRenderCacheSize() { return renderCacheSize; }
+    public Path getMetricsFile() { return metricsFile; }
+    public int getProgressInterval() { return progressInterval; }
+    public long getShardTargetBytes() { return shardTargetBytes; }
+    public boolean isClusterIndex() { return clusterIndex; }
+    public List<Integer> getSelectedClusters() { return selectedClusters; }
+    public double getDedupThreshold() { return dedupThreshold; }
+    public int getBatchThreads() { return batchThreads; }
+    public Path getOutputDir() { return outputDir; }
+    public int getCompressionLevel() { return compressionLevel; }
+    public int getCompressionThreads() { return compressionThreads; }
+    public int getServePort() { return servePort; }
+    public int getMaxJobs() { return maxJobs; }
+    public long getJobMemory() { return jobMemory; }
+
+    public void setWriterMode(ReportWriter.Mode writerMode) { this.writerMode = writerMode; }
+
+    /**
+     * Estimated heap the grouping stage may use before rows are spilled to temp files. Budgets
+     * below {@link ClusterGrouper#MIN_MEMORY_BUDGET 4 MB} are raised to it.
+     */
+    public void setGroupMemoryBudget(long groupMemoryBudget) { this.groupMemoryBudget = groupMemoryBudget; }
+
+    /**
+     * Directory for spill files; {@code null} uses {@code java.io.tmpdir}.
+     */
+    public void setTempDir(Path tempDir) { this.tempDir = tempDir; }
+
+    /**
+     * Number of output shards rendered concurrently; {@code 1} renders sequentially.
+     */
+    public void setRenderThreads(int renderThreads) {
+        if (renderThreads < 1) {
+            throw new IllegalArgumentException("Render threads must be at least 1: " + renderThreads);
+        }
+        this.renderThreads = renderThreads;
+    }
+
+    /**
+     * Runs reading, cluster assembly, rendering and writing as concurrent stages; see
+     * {@link ReportPipeline}.
+     */
+    public void setPipelined(boolean pipelined) { this.pipelined = pipelined; }
+
+    /**
+     * Declares that input rows arrive in ascending cluster order, so the pipeline can hand each
+     * cluster on as soon as it is complete. Out-of-order input then fails the run.
+     */
+    public void setSortedInput(boolean sortedInput) { this.sortedInput = sortedInput; }
+
+    /**
+     * Directory of the persistent per-cluster render cache; {@code null} disables caching.
+     */
+    public void setRenderCacheDir(Path renderCacheDir) { this.renderCacheDir = renderCacheDir; }
+
+    /**
+     * Size the render cache is trimmed back to, least recently used fragments first.
+     */
+    public void setRenderCacheSize(long renderCacheSize) { this.renderCacheSize = renderCacheSize; }
+
+    /**
+     * File the {@link RunMetrics} JSON summary is written to; {@code null} writes none.
+     */
+    public void setMetricsFile(Path metricsFile) { this.metricsFile = metricsFile; }
+
+    /**
+     * Seconds between progress lines; {@code 0} prints none.
+     */
+    public void setProgressInterval(int progressInterval) {
+        if (progressInterval < 0) {
+            throw new IllegalArgumentException("Progress interval must not be negative: " + progressInterval);
+        }
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Estimated {@code word/document.xml} size at which the report starts a new output file, and
+     * a manifest of the files is written next to it. {@code 0} splits every 5000 clusters instead.
+     * The DOCX files on disk are compressed and several times smaller than the target.
+     */
+    public void setShardTargetBytes(long shardTargetBytes) {
+        if (shardTargetBytes < 0) {
+            throw new IllegalArgumentException("Shard size must not be negative: " + shardTargetBytes);
+        }
+        this.shardTargetBytes = shardTargetBytes;
+    }
+
+    /**
+     * Writes a cluster index ({@code report.clusters.idx} and {@code report.clusters.dat}) next
+     * to the report, for re-rendering single clusters later; see {@link ClusterIndex}.
+     */
+    public void setClusterIndex(boolean clusterIndex) { this.clusterIndex = clusterIndex; }
+
+    /**
+     * Clusters to re-render from a cluster index instead of processing a workbook; {@code null}
+     * processes the workbook.
+     */
+    public void setSelectedClusters(List<Integer> selectedClusters) { this.selectedClusters = selectedClusters; }
+
+    /**
+     * Estimated similarity (0 to 1) at which similar issues of a cluster are collapsed into one
+     * entry listing the duplicates' ids; {@code 0} writes every issue in full. See
+     * {@link SimilarIssueDeduplicator}.
+     */
+    public void setDedupThreshold(double dedupThreshold) {
+        if (dedupThreshold < 0 || dedupThreshold > 1) {
+            throw new IllegalArgumentException("Dedup threshold must be between 0 and 1: " + dedupThreshold);
+        }
+        this.dedupThreshold = dedupThreshold;
+    }
+
+    /**
+     * Number of workbooks processed concurrently in batch mode; {@code 0} processes a single
+     * workbook. See {@link BatchProcessor}.
+     */
+    public void setBatchThreads(int batchThreads) {
+        if (batchThreads < 0) {
+            throw new IllegalArgumentException("Batch threads must not be negative: " + batchThreads);
+        }
+        this.batchThreads = batchThreads;
+    }
+
+    /**
+     * Directory batch mode writes its reports to; {@code null} uses the working directory.
+     */
+    public void setOutputDir(Path outputDir) { this.outputDir = outputDir; }
+
+    /**
+     * Deflate level of the output DOCX files, {@code 1} to {@code 9}; {@code 0} stores the parts
+     * uncompressed, e.g. for intermediate files, and {@code -1} is the zlib default.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Number of blocks of a DOCX part compressed concurrently; {@code 1} compresses on the
+     * thread writing the report.
+     */
+    public void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1) {
+            throw new IllegalArgumentException("Compression threads must be at least 1: " + compressionThreads);
+        }
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * Port of the local report service; {@code 0} processes files from the command line instead.
+     * See {@link ReportService}.
+     */
+    public void setServePort(int servePort) {
+        if (servePort < 0 || servePort > 65535) {
+            throw new IllegalArgumentException("Invalid port: " + servePort);
+        }
+        this.servePort = servePort;
+    }
+
+    /**
+     * Number of reports the service builds at the same time; further requests are turned away.
+     */
+    public void setMaxJobs(int maxJobs) {
+        if (maxJobs < 1) {
+            throw new IllegalArgumentException("Max jobs must be at least 1: " + maxJobs);
+        }
+        this.maxJobs = maxJobs;
+    }
+
+    /**
+     * Group memory budget of each service job; {@code 0} shares the group memory budget
+     * equally between {@link #setMaxJobs the concurrent jobs}.
+     */
+    public void setJobMemory(long jobMemory) {
+        if (jobMemory < 0) {
+            throw new IllegalArgumentException("Job memory must not be negative: " + jobMemory);
+        }
+        this.jobMemory = jobMemory;
+    }
+
+    /**
+     * Returns an independent copy, for a run that needs different settings from the rest.
+     */
+    public ReportOptions copy() {
+        try {
+            return (ReportOptions) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Applies one command line flag such as {@code --writer=streaming} or {@code --group-memory=256m}.
+     *
+     * @throws IllegalArgumentException if the flag or its value is not recognised
+     */
+    public void apply(String flag) {
+        int eq = flag.indexOf('=');
+        String name = eq >= 0 ? flag.substring(0, eq) : flag;
+        String value = eq >= 0 ? flag.substring(eq + 1) : "";
+        switch (name) {
+            case "--writer":
+                setWriterMode(ReportWriter.Mode.valueOf(value.toUpperCase(Locale.ROOT)));
+                break;
+            case "--group-memory":
+                setGroupMemoryBudget(parseSize(value));
+                break;
+            case "--temp-dir":
+                setTempDir(Paths.get(value));
+                break;
+            case "--render-threads":
+                setRenderThreads(value.isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(value));
+                break;
+            case "--pipeline":
+                setPipelined(true);
+                break;
+            case "--sorted-input":
+                setSortedInput(true);
+                break;
+            case "--render-cache":
+                setRenderCacheDir(Paths.get(value));
+                break;
+            case "--render-cache-size":
+                setRenderCacheSize(parseSize(value));
+                break;
+            case "--metrics":
+                setMetricsFile(Paths.get(value));
+                break;
+            case "--shard-size":
+                setShardTargetBytes(parseSize(value));
+                break;
+            case "--cluster-index":
+                setClusterIndex(true);
+                break;
+            case "--clusters":
+                List<Integer> clusters = new ArrayList<>();
+                for (String id : value.split(",")) {
+                    clusters.add(Integer.parseInt(id.trim()));
+                }
+                setSelectedClusters(clusters);
+                break;
+            case "--dedup":
+                setDedupThreshold(value.isEmpty() ? 0.9 : Double.parseDouble(value));
+                break;
+            case "--batch":
+                setBatchThreads(value.isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(value));
+                break;
+            case "--output-dir":
+                setOutputDir(Paths.get(value));
+                break;
+            case "--compression":
+                setCompressionLevel("store".equalsIgnoreCase(value) ? Deflater.NO_COMPRESSION : Integer.parseInt(value));
+                break;
+            case "--compression-threads":
+                setCompressionThreads(value.isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(value));
+                break;
+            case "--serve":
+                setServePort(value.isEmpty() ? 8088 : Integer.parseInt(value));
+                break;
+            case "--max-jobs":
+                setMaxJobs(Integer.parseInt(value));
+                break;
+            case "--job-memory":
+                setJobMemory(parseSize(value));
+                break;
+            case "--progress":
+                setProgressInterval(value.isEmpty() ? 10 : Integer.parseInt(value));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: " + flag);
+        }
+    }
+
+    /**
+     * Parses a byte count with an optional {@code k}, {@code m} or {@code g} suffix.
+     */
+    static long parseSize(String value) {
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        long multiplier = 1;
+        if (v.endsWith("k")) {
+            multiplier = 1024L;
+        } else if (v.endsWith("m")) {
+            multiplier = 1024L * 1024;
+        } else if (v.endsWith("g")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier != 1) {
+            v = v.substring(0, v.length() - 1);
+        }
+        return Long.parseLong(v) * multiplier;
+    }
+}
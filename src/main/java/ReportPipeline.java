@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs a report as concurrent stages connected by bounded queues:
+ * <pre>
+ *   read rows -> assemble clusters -> render -> write DOCX
+ * </pre>
+ * Each stage has its own thread (writing happens on the caller's thread), and a full queue blocks
+ * the stage feeding it, so a slow stage throttles the ones before it instead of letting work pile
+ * up in memory. Wall-clock time approaches that of the slowest stage.
+ *
+ * <p>With {@link ReportOptions#isSortedInput()} a cluster is handed on as soon as a row of a
+ * higher cluster arrives. Otherwise clusters can only be assembled after the last row, so reading
+ * overlaps grouping (and spilling) but rendering starts once the input is exhausted.
+ */
+public class ReportPipeline {
+
+    private static final int ROW_QUEUE_CAPACITY = 1024;
+    private static final int CLUSTER_QUEUE_CAPACITY = 64;
+
+    public static void run(EmailRowSource rows, String outputPath, ReportOptions options,
+                           RenderCache cache, RunMetrics metrics, ClusterIndexWriter index) throws IOException {
+        Channel<EmailProcessorXLSX.EmailEntry> rowChannel = new Channel<>(ROW_QUEUE_CAPACITY);
+        Channel<ClusterGroup> clusterChannel = new Channel<>(CLUSTER_QUEUE_CAPACITY);
+        Channel<RenderedCluster> renderedChannel = new Channel<>(CLUSTER_QUEUE_CAPACITY);
+        List<Thread> stages = new ArrayList<>();
+
+        stages.add(startStage("report-read", rowChannel, metrics, RunMetrics.Phase.READ,
+                () -> rows.readEntries(rowChannel::put)));
+        stages.add(startStage("report-group", clusterChannel, metrics, RunMetrics.Phase.GROUP,
+                () -> assemble(rowChannel, clusterChannel, options)));
+
+        ClusterGrouper.ClusterSource clusters = EmailProcessorXLSX.indexed(clusterChannel::take, index);
+        boolean completed = false;
+        try {
+            if (options.getRenderThreads() > 1) {
+                // Shards are rendered and written by the parallel shard pool
+                EmailProcessorXLSX.writeReportInParallel(clusters, outputPath, options, cache, metrics);
+            } else {
+                // Render time is measured per cluster, so this stage is not timed as a whole
+                stages.add(startStage("report-render", renderedChannel, metrics, null,
+                        () -> render(clusters, renderedChannel, cache, options.getDedupThreshold(), metrics)));
+                EmailProcessorXLSX.writeRenderedClusters(renderedChannel::take, outputPath, options, metrics);
+            }
+            completed = true;
+        } finally {
+            for (Thread stage : stages) {
+                if (!completed) {
+                    stage.interrupt();
+                }
+                try {
+                    stage.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static void assemble(Channel<EmailProcessorXLSX.EmailEntry> rows, Channel<ClusterGroup> clusters,
+                                 ReportOptions options) throws IOException {
+        if (!options.isSortedInput()) {
+            try (ClusterGrouper grouper = new ClusterGrouper(options.getGroupMemoryBudget(), options.getTempDir())) {
+                EmailProcessorXLSX.EmailEntry row;
+                while ((row = rows.take()) != null) {
+                    grouper.accept(row);
+                }
+                ClusterGrouper.ClusterSource source = grouper.clusters();
+                ClusterGroup cluster;
+                while ((cluster = source.next()) != null) {
+                    clusters.put(cluster);
+                }
+            }
+            return;
+        }
+
+        List<EmailProcessorXLSX.EmailEntry> current = new ArrayList<>();
+        int currentCluster = 0;
+        EmailProcessorXLSX.EmailEntry row;
+        while ((row = rows.take()) != null) {
+            if (!current.isEmpty() && row.getCluster() != currentCluster) {
+                if (row.getCluster() < currentCluster) {
+                    throw new IOException("Input is not sorted by cluster: cluster " + row.getCluster()
+                            + " follows cluster " + currentCluster + "; run without --sorted-input.");
+                }
+                clusters.put(new ClusterGroup(currentCluster, current));
+                current = new ArrayList<>();
+            }
+            currentCluster = row.getCluster();
+            current.add(row);
+        }
+        if (!current.isEmpty()) {
+            clusters.put(new ClusterGroup(currentCluster, current));
+        }
+    }
+
+    private static void render(ClusterGrouper.ClusterSource clusters, Channel<RenderedCluster> rendered,
+                               RenderCache cache, double dedupThreshold, RunMetrics metrics) throws IOException {
+        RenderedCluster.Source source = RenderedCluster.renderAll(clusters, cache, dedupThreshold, metrics);
+        RenderedCluster cluster;
+        while ((cluster = source.next()) != null) {
+            rendered.put(cluster);
+        }
+    }
+
+    /**
+     * Starts {@code body} on its own thread; unless {@code phase} is {@code null}, the thread's
+     * time is added to that phase.
+     */
+    private static Thread startStage(String name, Channel<?> output, RunMetrics metrics, RunMetrics.Phase phase,
+                                     Stage body) {
+        Thread thread = new Thread(() -> {
+            try {
+                long wall = System.nanoTime();
+                long cpu = RunMetrics.cpuTime();
+                body.run();
+                if (phase != null) {
+                    metrics.addTime(phase, wall, cpu);
+                }
+                output.finish();
+            } catch (Throwable t) {
+                output.fail(t);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * Bounded hand-off between two stages. The producer ends the stream with {@link #finish()} or
+     * {@link #fail(Throwable)}; the consumer sees {@code null} at the end, or the producer's
+     * failure rethrown.
+     */
+    private static class Channel<T> {
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> queue;
+        private volatile Throwable failure;
+
+        Channel(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void put(T item) {
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Report pipeline cancelled"));
+            }
+        }
+
+        void finish() {
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void fail(Throwable t) {
+            failure = t;
+            // Make room for the end marker; the consumer discards everything after a failure
+            queue.clear();
+            queue.offer(END);
+        }
+
+        @SuppressWarnings("unchecked")
+        T take() throws IOException {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Report pipeline cancelled");
+            }
+            if (item != END) {
+                return (T) item;
+            }
+            // Leave the marker for any later take()
+            queue.offer(END);
+            Throwable t = failure;
+            if (t instanceof UncheckedIOException) {
+                t = t.getCause();
+            }
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            if (t != null) {
+                throw new IOException("Report pipeline stage failed: " + t.getMessage(), t);
+            }
+            return null;
+        }
+    }
+}
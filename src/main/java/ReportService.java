@@ -0,0 +1,418 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * Local HTTP service that builds reports in a JVM that stays up, so class loading, POI's schema
+ * types and JIT compilation are paid for once instead of on every report. It listens on the
+ * loopback interface only:
+ *
+ * <ul>
+ * <li>{@code POST /report} builds a report from the uploaded workbook, or from the local file
+ * named by the {@code path} parameter, and returns the DOCX, or a ZIP of the files and their
+ * manifest if the report is split. {@code format=csv} or {@code format=tsv} marks an upload as
+ * delimited text. Other parameters are report options without their dashes, e.g.
+ * {@code /report?writer=streaming&dedup=0.9}.</li>
+ * <li>{@code GET /health} tells whether the service is up and how many jobs are running.</li>
+ * <li>{@code GET /metrics} returns job counters and heap use as JSON.</li>
+ * </ul>
+ *
+ * <p>At most {@link ReportOptions#setMaxJobs max jobs} reports are built at once; a request
+ * beyond that gets {@code 503} with a {@code Retry-After} header rather than queueing. Each job's
+ * grouping stage has its own memory budget, so concurrent jobs spill to disk instead of running
+ * the heap out. Before accepting requests, the service builds a small report with each writer.
+ *
+ * <p>Requests with an {@code Origin} header or a form content type are refused, so a web page
+ * cannot make the browser post to the service; upload as {@code application/octet-stream}.
+ */
+public class ReportService {
+
+    private static final String DOCX_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+    private static final int WARM_UP_ROWS = 2000;
+
+    /**
+     * Options a request may not set: they configure the service, touch files outside the job, or
+     * start threads beyond what {@link ReportOptions#setMaxJobs max jobs} allows for. The service's
+     * own values of these apply to every job.
+     */
+    private static final Set<String> SERVICE_OPTIONS = Set.of("--serve", "--max-jobs", "--job-memory",
+            "--group-memory", "--temp-dir", "--batch", "--output-dir", "--metrics", "--progress",
+            "--cluster-index", "--clusters", "--render-cache", "--render-cache-size", "--render-threads",
+            "--compression-threads");
+
+    /** Request types a browser sends cross-origin without asking first; the service accepts none. */
+    private static final Set<String> FORM_CONTENT_TYPES = Set.of("application/x-www-form-urlencoded",
+            "multipart/form-data", "text/plain");
+
+    private final ReportOptions options;
+    private final Semaphore jobSlots;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong jobNumber = new AtomicLong();
+    private final AtomicLong jobsCompleted = new AtomicLong();
+    private final AtomicLong jobsFailed = new AtomicLong();
+    private final AtomicLong jobsRejected = new AtomicLong();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong clustersWritten = new AtomicLong();
+    private final AtomicLong jobNanos = new AtomicLong();
+    private volatile long warmUpNanos;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public ReportService(ReportOptions options) {
+        this.options = options;
+        this.jobSlots = new Semaphore(options.getMaxJobs());
+    }
+
+    /**
+     * Warms the JVM up and starts accepting requests on {@link ReportOptions#getServePort()}.
+     */
+    public void start() throws IOException {
+        warmUp();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), options.getServePort()), 0);
+        server.createContext("/report", this::handleReport);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+        // Requests beyond the job limit are answered at once, and the spare threads keep the
+        // health and metrics endpoints responsive while every job slot is busy
+        executor = Executors.newFixedThreadPool(options.getMaxJobs() + 2);
+        server.setExecutor(executor);
+        server.start();
+        System.out.println("Report service listening on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + " with up to " + options.getMaxJobs() + " concurrent jobs");
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Settings of a job before request parameters are applied: the service's options with the
+     * group memory budget per job, and without the settings that only make sense for one run.
+     */
+    private ReportOptions baseJobOptions() {
+        ReportOptions job = options.copy();
+        job.setGroupMemoryBudget(options.getJobMemory() > 0
+                ? options.getJobMemory() : options.getGroupMemoryBudget() / options.getMaxJobs());
+        job.setServePort(0);
+        job.setBatchThreads(0);
+        job.setMetricsFile(null);
+        job.setProgressInterval(0);
+        job.setClusterIndex(false);
+        job.setSelectedClusters(null);
+        return job;
+    }
+
+    /**
+     * Builds one small report with each writer, so POI's classes and schema types are loaded and
+     * the hot paths are compiled before the first real request.
+     */
+    private void warmUp() throws IOException {
+        long start = System.nanoTime();
+        Path dir = Files.createTempDirectory(tempDir(), "report-warmup-");
+        try {
+            Path workbook = dir.resolve("warmup.xlsx");
+            try (XSSFWorkbook wb = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(workbook)) {
+                Sheet sheet = wb.createSheet("clustered_emails");
+                Row header = sheet.createRow(0);
+                for (int c = 0; c < StreamingXlsxReader.REQUIRED_COLUMNS.length; c++) {
+                    header.createCell(c).setCellValue(StreamingXlsxReader.REQUIRED_COLUMNS[c]);
+                }
+                for (int r = 1; r <= WARM_UP_ROWS; r++) {
+                    Row row = sheet.createRow(r);
+                    for (int c = 0; c < StreamingXlsxReader.CLUSTER_COLUMN; c++) {
+                        row.createCell(c).setCellValue("warm-up row " + r + " column " + c);
+                    }
+                    row.createCell(StreamingXlsxReader.CLUSTER_COLUMN).setCellValue(r % 100);
+                }
+                wb.write(out);
+            }
+            for (ReportWriter.Mode mode : ReportWriter.Mode.values()) {
+                ReportOptions warmUp = baseJobOptions();
+                warmUp.setWriterMode(mode);
+                warmUp.setRenderCacheDir(null);
+                warmUp.setShardTargetBytes(0);
+                EmailProcessorXLSX.processClusteredEmailsAndSaveToDocx(workbook.toFile(),
+                        dir.resolve(mode.name().toLowerCase(Locale.ROOT) + ".docx").toString(), warmUp);
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+        warmUpNanos = System.nanoTime() - start;
+        System.out.println("Warm-up finished in " + warmUpNanos / 1_000_000 + " ms");
+    }
+
+    private void handleReport(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Use POST to build a report.");
+                return;
+            }
+            if (!isLocalClientRequest(exchange)) {
+                sendText(exchange, 403, "Requests from web pages are not accepted; send the upload as "
+                        + "application/octet-stream.");
+                return;
+            }
+            Map<String, String> parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+            ReportOptions jobOptions;
+            try {
+                jobOptions = jobOptions(parameters);
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+            if (!jobSlots.tryAcquire()) {
+                jobsRejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "10");
+                sendText(exchange, 503, "All " + options.getMaxJobs() + " job slots are busy; retry later.");
+                return;
+            }
+            try {
+                runJob(exchange, parameters, jobOptions);
+            } finally {
+                jobSlots.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error handling report request: " + e.getMessage());
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Whether a request can only have come from a local client rather than a web page: browsers
+     * add {@code Origin} to cross-origin posts, and only form content types avoid a CORS preflight,
+     * which the service never answers.
+     */
+    private static boolean isLocalClientRequest(HttpExchange exchange) {
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            return false;
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null) {
+            return true;
+        }
+        int parameters = contentType.indexOf(';');
+        String mediaType = (parameters >= 0 ? contentType.substring(0, parameters) : contentType).trim();
+        return !FORM_CONTENT_TYPES.contains(mediaType.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Applies the request's parameters, other than {@code path} and {@code format}, as report
+     * options on top of {@link #baseJobOptions()}.
+     *
+     * @throws IllegalArgumentException if a parameter is not an option a request may set
+     */
+    private ReportOptions jobOptions(Map<String, String> parameters) {
+        ReportOptions job = baseJobOptions();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (parameter.getKey().equals("path") || parameter.getKey().equals("format")) {
+                continue;
+            }
+            String name = "--" + parameter.getKey();
+            if (SERVICE_OPTIONS.contains(name)) {
+                throw new IllegalArgumentException("Option cannot be set per request: " + parameter.getKey());
+            }
+            job.apply(parameter.getValue().isEmpty() ? name : name + "=" + parameter.getValue());
+        }
+        return job;
+    }
+
+    private void runJob(HttpExchange exchange, Map<String, String> parameters, ReportOptions jobOptions)
+            throws IOException {
+        long job = jobNumber.incrementAndGet();
+        Path dir = Files.createTempDirectory(tempDir(), "report-job-");
+        try {
+            Path input;
+            String path = parameters.get("path");
+            if (path != null) {
+                input = Paths.get(path);
+                if (!Files.isRegularFile(input)) {
+                    sendText(exchange, 404, "Input file not found: " + path);
+                    return;
+                }
+            } else {
+                String format = parameters.getOrDefault("format", "xlsx").toLowerCase(Locale.ROOT);
+                if (!Set.of("xlsx", "csv", "tsv").contains(format)) {
+                    sendText(exchange, 400, "Unknown input format: " + format);
+                    return;
+                }
+                input = dir.resolve("input." + format);
+                try (InputStream body = exchange.getRequestBody()) {
+                    Files.copy(body, input);
+                }
+            }
+
+            System.out.println("Job " + job + ": building report from " + (path != null ? path : "upload of "
+                    + Files.size(input) + " bytes"));
+            String outputPath = dir.resolve("ClusteredEmailReport.docx").toString();
+            RunMetrics metrics;
+            try {
+                metrics = EmailProcessorXLSX.processClusteredEmailsAndSaveToDocx(input.toFile(), outputPath, jobOptions);
+            } catch (IOException | RuntimeException e) {
+                jobsFailed.incrementAndGet();
+                System.err.println("Job " + job + " failed: " + e.getMessage());
+                sendText(exchange, 500, "Failed to build report: " + e.getMessage());
+                return;
+            }
+            jobsCompleted.incrementAndGet();
+            rowsRead.addAndGet(metrics.getRowsRead());
+            clustersWritten.addAndGet(metrics.getClustersWritten());
+            jobNanos.addAndGet(metrics.getElapsedNanos());
+
+            List<OutputShard> files = metrics.getOutputFiles();
+            exchange.getResponseHeaders().set("X-Report-Rows", String.valueOf(metrics.getRowsRead()));
+            exchange.getResponseHeaders().set("X-Report-Clusters", String.valueOf(metrics.getClustersWritten()));
+            exchange.getResponseHeaders().set("X-Report-Files", String.valueOf(files.size()));
+            if (files.size() == 1) {
+                sendFile(exchange, Paths.get(files.get(0).getPath()), DOCX_TYPE, "ClusteredEmailReport.docx");
+                return;
+            }
+
+            // A split report goes back as one archive; the DOCX files are compressed already
+            Path archive = dir.resolve("ClusteredEmailReport.zip");
+            try (ParallelZipOutputStream zip = new ParallelZipOutputStream(archive.toString(), Deflater.NO_COMPRESSION, 1)) {
+                for (OutputShard file : files) {
+                    Path shard = Paths.get(file.getPath());
+                    zip.putNextEntry(shard.getFileName().toString());
+                    Files.copy(shard, zip);
+                }
+                Path manifest = Paths.get(EmailProcessorXLSX.sidecarPath(outputPath, ".manifest.json"));
+                if (Files.exists(manifest)) {
+                    zip.putNextEntry(manifest.getFileName().toString());
+                    Files.copy(manifest, zip);
+                }
+            }
+            sendFile(exchange, archive, "application/zip", "ClusteredEmailReport.zip");
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            sendJson(exchange, "{\"status\": \"ok\", \"uptimeSeconds\": " + (System.nanoTime() - startNanos) / 1_000_000_000
+                    + ", \"activeJobs\": " + activeJobs() + ", \"maxJobs\": " + options.getMaxJobs() + "}\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            sendJson(exchange, metricsJson());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    String metricsJson() {
+        Runtime runtime = Runtime.getRuntime();
+        long completed = jobsCompleted.get();
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"uptimeSeconds\": ").append((System.nanoTime() - startNanos) / 1_000_000_000).append(",\n");
+        json.append("  \"warmUpMillis\": ").append(warmUpNanos / 1_000_000).append(",\n");
+        json.append("  \"maxJobs\": ").append(options.getMaxJobs()).append(",\n");
+        json.append("  \"activeJobs\": ").append(activeJobs()).append(",\n");
+        json.append("  \"jobsCompleted\": ").append(completed).append(",\n");
+        json.append("  \"jobsFailed\": ").append(jobsFailed.get()).append(",\n");
+        json.append("  \"jobsRejected\": ").append(jobsRejected.get()).append(",\n");
+        json.append("  \"rowsRead\": ").append(rowsRead.get()).append(",\n");
+        json.append("  \"clusters\": ").append(clustersWritten.get()).append(",\n");
+        json.append("  \"averageJobMillis\": ").append(completed > 0 ? jobNanos.get() / completed / 1_000_000 : 0).append(",\n");
+        json.append("  \"heapUsedBytes\": ").append(runtime.totalMemory() - runtime.freeMemory()).append(",\n");
+        json.append("  \"heapMaxBytes\": ").append(runtime.maxMemory()).append('\n');
+        return json.append("}\n").toString();
+    }
+
+    private int activeJobs() {
+        return options.getMaxJobs() - jobSlots.availablePermits();
+    }
+
+    private Path tempDir() throws IOException {
+        if (options.getTempDir() == null) {
+            return Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+        Files.createDirectories(options.getTempDir());
+        return options.getTempDir();
+    }
+
+    static Map<String, String> queryParameters(String rawQuery) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq >= 0 ? pair.substring(0, eq) : pair, StandardCharsets.UTF_8);
+            String value = eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8) : "";
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    private static void sendFile(HttpExchange exchange, Path file, String contentType, String fileName) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        exchange.sendResponseHeaders(200, Files.size(file));
+        try (OutputStream body = exchange.getResponseBody()) {
+            Files.copy(file, body);
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        send(exchange, 200, json);
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        send(exchange, status, message + "\n");
+    }
+
+    private static void send(HttpExchange exchange, int status, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Named styles shared by both report writers. Formatting lives once in {@code word/styles.xml}
+ * and paragraphs and runs refer to it by id instead of repeating run properties on every line.
+ */
+public class ReportStyles {
+
+    /** Paragraph style for cluster paragraphs and the footer: Consolas 10pt. */
+    public static final String BODY = "ReportBody";
+
+    /** Character style for the "Main Issue" and "Similar issues" headings. */
+    public static final String HEADING = "ReportHeading";
+
+    /** Paragraph style for the {@code ---} paragraphs between clusters. */
+    public static final String SEPARATOR = "Separator";
+
+    static final String STYLES_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<w:styles xmlns:w=\"" + StreamingDocxWriter.W_NS + "\">"
+            + "<w:style w:type=\"paragraph\" w:customStyle=\"1\" w:styleId=\"" + BODY + "\">"
+            + "<w:name w:val=\"Report Body\"/><w:qFormat/>"
+            + "<w:rPr><w:rFonts w:ascii=\"Consolas\" w:hAnsi=\"Consolas\" w:cs=\"Consolas\" w:eastAsia=\"Consolas\"/>"
+            + "<w:sz w:val=\"20\"/><w:szCs w:val=\"20\"/></w:rPr>"
+            + "</w:style>"
+            + "<w:style w:type=\"paragraph\" w:customStyle=\"1\" w:styleId=\"" + SEPARATOR + "\">"
+            + "<w:name w:val=\"Separator\"/><w:basedOn w:val=\"" + BODY + "\"/><w:qFormat/>"
+            + "</w:style>"
+            + "<w:style w:type=\"character\" w:customStyle=\"1\" w:styleId=\"" + HEADING + "\">"
+            + "<w:name w:val=\"Report Heading\"/><w:qFormat/>"
+            + "<w:rPr><w:b/><w:bCs/></w:rPr>"
+            + "</w:style>"
+            + "</w:styles>";
+}
@@ -0,0 +1,69 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Destination for one output DOCX file. Cluster paragraphs and separators are appended in report
+ * order; {@link #close()} finishes the document at its output path.
+ */
+public interface ReportWriter extends Closeable {
+
+    /**
+     * Appends one paragraph holding {@code lines}, one line break after each line. Heading lines
+     * (see {@link ClusterRenderer#isHeading}) are written bold without their {@code **} markers.
+     */
+    void writeClusterParagraph(List<String> lines) throws IOException;
+
+    /**
+     * Appends a {@code ---} separator paragraph.
+     */
+    void writeSeparator() throws IOException;
+
+    /**
+     * Whether {@link #writeParagraphXml} is supported, so a {@link RenderCache} fragment can be
+     * spliced in as is.
+     */
+    default boolean supportsParagraphXml() {
+        return false;
+    }
+
+    /**
+     * Appends paragraph markup produced by {@link StreamingDocxWriter#paragraphXml}. Writers whose
+     * {@link #supportsParagraphXml()} returns {@code false} fail with an {@code IOException}.
+     */
+    default void writeParagraphXml(String paragraph) throws IOException {
+        throw new IOException(getClass().getSimpleName() + " cannot write paragraph markup");
+    }
+
+    /**
+     * Selects how output documents are produced.
+     */
+    enum Mode {
+        /** Builds each document as an {@code XWPFDocument} and serializes it when closed. */
+        POI {
+            @Override
+            public ReportWriter open(String outputPath, int compressionLevel, int compressionThreads) throws IOException {
+                return new PoiReportWriter(outputPath, compressionLevel, compressionThreads);
+            }
+        },
+        /** Streams {@code word/document.xml} into the ZIP while clusters are rendered. */
+        STREAMING {
+            @Override
+            public ReportWriter open(String outputPath, int compressionLevel, int compressionThreads) throws IOException {
+                return new StreamingDocxWriter(outputPath, compressionLevel, compressionThreads);
+            }
+        };
+
+        public ReportWriter open(String outputPath) throws IOException {
+            return open(outputPath, Deflater.DEFAULT_COMPRESSION, 1);
+        }
+
+        /**
+         * Opens a writer whose package is compressed at {@code compressionLevel} ({@code 0} stores
+         * it) on up to {@code compressionThreads} threads; see {@link ParallelZipOutputStream}.
+         */
+        public abstract ReportWriter open(String outputPath, int compressionLevel, int compressionThreads)
+                throws IOException;
+    }
+}
@@ -0,0 +1,312 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings for one report run, safe to update from every stage and render thread.
+ * At the end of a run they are printed as a one-line summary and, with {@code --metrics=FILE},
+ * written as JSON; with {@code --progress} a line is printed periodically while the run is going.
+ *
+ * <p>Phase times are summed over the threads working in that phase, so with several render
+ * threads the render time can exceed the elapsed time. Without the pipeline, rows are grouped as
+ * they are read: {@link Phase#READ} then includes buffering and spilling, and {@link Phase#GROUP}
+ * only the merge that hands out clusters. In the pipeline each stage thread is timed as a whole,
+ * so wall time includes waiting on the neighbouring stages while CPU time does not.
+ */
+public class RunMetrics {
+
+    public enum Phase { READ, GROUP, RENDER, SERIALIZE }
+
+    /** Skip reason: the cluster cell is missing, a formula or not numeric. */
+    public static final String SKIP_INVALID_CLUSTER = "invalidCluster";
+
+    /** Skip reason: a row value could not be read. */
+    public static final String SKIP_PARSE_ERROR = "parseError";
+
+    private static final int LARGEST_CLUSTER_COUNT = 10;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    private final LongAdder[] wallNanos = new LongAdder[Phase.values().length];
+    private final LongAdder[] cpuNanos = new LongAdder[Phase.values().length];
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong clustersWritten = new AtomicLong();
+    private final Map<String, LongAdder> skippedRows = new TreeMap<>();
+    private final AtomicLong peakHeapBytes = new AtomicLong();
+    private final List<OutputShard> outputFiles = new ArrayList<>();
+    // Smallest of the largest clusters at the head
+    private final PriorityQueue<long[]> largestClusters =
+            new PriorityQueue<>(Comparator.comparingLong((long[] cluster) -> cluster[1]));
+
+    private Thread progressThread;
+
+    public RunMetrics() {
+        for (int i = 0; i < wallNanos.length; i++) {
+            wallNanos[i] = new LongAdder();
+            cpuNanos[i] = new LongAdder();
+        }
+        sampleHeap();
+    }
+
+    /**
+     * CPU time of the current thread, to pass to {@link #addTime} as the start of a phase.
+     * Returns {@code 0} where the JVM cannot measure thread CPU time.
+     */
+    public static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Adds the time since {@code wallStart} ({@link System#nanoTime()}) and {@code cpuStart}
+     * ({@link #cpuTime()}) on the current thread to {@code phase}.
+     */
+    public void addTime(Phase phase, long wallStart, long cpuStart) {
+        wallNanos[phase.ordinal()].add(System.nanoTime() - wallStart);
+        if (CPU_TIME_SUPPORTED) {
+            cpuNanos[phase.ordinal()].add(cpuTime() - cpuStart);
+        }
+    }
+
+    /**
+     * Wraps {@code clusters} so the time spent producing each cluster counts as {@link Phase#GROUP}.
+     */
+    public ClusterGrouper.ClusterSource timeGrouping(ClusterGrouper.ClusterSource clusters) {
+        return () -> {
+            long wall = System.nanoTime();
+            long cpu = cpuTime();
+            try {
+                return clusters.next();
+            } finally {
+                addTime(Phase.GROUP, wall, cpu);
+            }
+        };
+    }
+
+    public void rowRead() {
+        // Sampling the heap costs about as much as reading a cell, so only every few thousand rows
+        if ((rowsRead.incrementAndGet() & 4095) == 0) {
+            sampleHeap();
+        }
+    }
+
+    public void rowSkipped(String reason) {
+        synchronized (skippedRows) {
+            skippedRows.computeIfAbsent(reason, r -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Records a cluster written to the report.
+     */
+    public void clusterWritten(int clusterNumber, int rowCount) {
+        clustersWritten.incrementAndGet();
+        synchronized (largestClusters) {
+            if (largestClusters.size() < LARGEST_CLUSTER_COUNT) {
+                largestClusters.add(new long[]{clusterNumber, rowCount});
+            } else if (rowCount > largestClusters.peek()[1]) {
+                largestClusters.poll();
+                largestClusters.add(new long[]{clusterNumber, rowCount});
+            }
+        }
+        sampleHeap();
+    }
+
+    /**
+     * Records a finished output file; see {@link OutputShard#written}.
+     */
+    public void outputFileWritten(OutputShard shard) {
+        synchronized (outputFiles) {
+            outputFiles.add(shard);
+        }
+    }
+
+    /**
+     * The output files written so far, in report order.
+     */
+    public List<OutputShard> getOutputFiles() {
+        List<OutputShard> files;
+        synchronized (outputFiles) {
+            files = new ArrayList<>(outputFiles);
+        }
+        files.sort(Comparator.comparingInt(OutputShard::getFileNumber));
+        return files;
+    }
+
+    /**
+     * Prints {@link #progressLine()} every {@code intervalSeconds} until {@link #finish()}.
+     */
+    public synchronized void startProgress(int intervalSeconds) {
+        progressThread = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(intervalSeconds));
+                    System.out.println(progressLine());
+                }
+            } catch (InterruptedException e) {
+                // Run finished
+            }
+        }, "report-progress");
+        progressThread.setDaemon(true);
+        progressThread.start();
+    }
+
+    /**
+     * Stops the clock and the progress thread.
+     */
+    public synchronized void finish() {
+        if (endNanos == 0) {
+            endNanos = System.nanoTime();
+        }
+        if (progressThread != null) {
+            progressThread.interrupt();
+            progressThread = null;
+        }
+        sampleHeap();
+    }
+
+    public long getRowsRead() { return rowsRead.get(); }
+    public long getClustersWritten() { return clustersWritten.get(); }
+    public long getPeakHeapBytes() { return peakHeapBytes.get(); }
+
+    public long getRowsSkipped() {
+        synchronized (skippedRows) {
+            return skippedRows.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+    }
+
+    public long getElapsedNanos() {
+        return (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    public long getWallNanos(Phase phase) { return wallNanos[phase.ordinal()].sum(); }
+    public long getCpuNanos(Phase phase) { return cpuNanos[phase.ordinal()].sum(); }
+
+    public String progressLine() {
+        return "Progress: " + rowsRead.get() + " rows read, " + clustersWritten.get() + " clusters written, "
+                + usedHeap() / (1024 * 1024) + " MB heap used, " + getElapsedNanos() / 1_000_000_000 + " s elapsed";
+    }
+
+    public String summaryLine() {
+        double seconds = getElapsedNanos() / 1e9;
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+                "Processed %d rows (%d skipped) into %d clusters in %.1f s (%.0f rows/s), peak heap %d MB;",
+                rowsRead.get(), getRowsSkipped(), clustersWritten.get(), seconds, rowsRead.get() / seconds,
+                peakHeapBytes.get() / (1024 * 1024)));
+        for (Phase phase : Phase.values()) {
+            line.append(String.format(Locale.ROOT, " %s %.1f s", phase.name().toLowerCase(Locale.ROOT),
+                    getWallNanos(phase) / 1e9));
+        }
+        return line.toString();
+    }
+
+    /**
+     * Writes the metrics as a JSON object to {@code file}.
+     */
+    public void writeJson(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(toJson());
+            out.write('\n');
+        }
+    }
+
+    public String toJson() {
+        double seconds = getElapsedNanos() / 1e9;
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"elapsedMillis\": ").append(getElapsedNanos() / 1_000_000).append(",\n");
+        json.append("  \"rowsRead\": ").append(rowsRead.get()).append(",\n");
+        json.append("  \"rowsSkipped\": ").append(getRowsSkipped()).append(",\n");
+        json.append("  \"skippedRows\": {");
+        synchronized (skippedRows) {
+            String separator = "";
+            for (Map.Entry<String, LongAdder> reason : skippedRows.entrySet()) {
+                json.append(separator).append(quote(reason.getKey())).append(": ").append(reason.getValue().sum());
+                separator = ", ";
+            }
+        }
+        json.append("},\n");
+        json.append("  \"clusters\": ").append(clustersWritten.get()).append(",\n");
+        json.append("  \"rowsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", rowsRead.get() / seconds)).append(",\n");
+        json.append("  \"clustersPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", clustersWritten.get() / seconds)).append(",\n");
+        json.append("  \"peakHeapBytes\": ").append(peakHeapBytes.get()).append(",\n");
+
+        json.append("  \"phases\": {\n");
+        for (Phase phase : Phase.values()) {
+            json.append("    ").append(quote(phase.name().toLowerCase(Locale.ROOT)))
+                    .append(": {\"wallMillis\": ").append(getWallNanos(phase) / 1_000_000)
+                    .append(", \"cpuMillis\": ").append(getCpuNanos(phase) / 1_000_000).append('}')
+                    .append(phase.ordinal() < Phase.values().length - 1 ? ",\n" : "\n");
+        }
+        json.append("  },\n");
+
+        json.append("  \"outputFiles\": [");
+        List<OutputShard> files = getOutputFiles();
+        for (int i = 0; i < files.size(); i++) {
+            OutputShard file = files.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"path\": ").append(quote(file.getPath()))
+                    .append(", \"clusters\": ").append(file.getClusters())
+                    .append(", \"bytes\": ").append(file.getBytes()).append('}');
+        }
+        json.append(files.isEmpty() ? "],\n" : "\n  ],\n");
+
+        json.append("  \"largestClusters\": [");
+        List<long[]> largest;
+        synchronized (largestClusters) {
+            largest = new ArrayList<>(largestClusters);
+        }
+        largest.sort(Comparator.comparingLong((long[] cluster) -> cluster[1]).reversed());
+        for (int i = 0; i < largest.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"cluster\": ").append(largest.get(i)[0])
+                    .append(", \"rows\": ").append(largest.get(i)[1]).append('}');
+        }
+        json.append(largest.isEmpty() ? "]\n" : "\n  ]\n");
+        return json.append("}").toString();
+    }
+
+    /**
+     * Heap use is sampled at row and cluster boundaries instead of forcing a collection, so the
+     * peak is a lower bound of the true peak.
+     */
+    private void sampleHeap() {
+        peakHeapBytes.accumulateAndGet(usedHeap(), Math::max);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
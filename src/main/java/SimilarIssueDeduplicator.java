@@ -0,0 +1,182 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collapses copy-paste duplicates among a cluster's similar issues. Each issue is fingerprinted
+ * with a MinHash signature over three-word shingles of its cleaned body and solution; issues whose
+ * estimated Jaccard similarity to an earlier issue reaches the threshold join that issue's group.
+ * Identical texts are matched directly without comparing signatures.
+ *
+ * <p>Signatures use one-permutation hashing: each shingle is hashed once and lands in one of
+ * {@value #SIGNATURE_SIZE} buckets, so fingerprinting costs one hash per word. Buckets no shingle
+ * landed in are then filled from a pseudo-randomly chosen filled bucket (optimal densification),
+ * so short texts get signatures as discriminating as long ones. Candidate groups are found
+ * through locality-sensitive hashing on bands of the signature, so a large cluster is not
+ * compared pairwise.
+ *
+ * <p>Issues whose body and solution have no words are never merged: there is nothing to compare,
+ * and their problem reported may still differ.
+ */
+public class SimilarIssueDeduplicator {
+
+    private static final int SIGNATURE_SIZE = 64;
+    private static final int BAND_SIZE = 4; // 16 bands: pairs at 0.8 similarity become candidates 99.9% of the time
+    private static final int SHINGLE_WORDS = 3;
+    private static final long EMPTY_BUCKET = Long.MAX_VALUE;
+
+    /**
+     * Groups {@code issues} into near-duplicate sets, in order of first occurrence. The first
+     * issue of each group is the one to write out; the others are its duplicates.
+     */
+    public static List<List<EmailProcessorXLSX.EmailEntry>> group(List<EmailProcessorXLSX.EmailEntry> issues,
+                                                                  double threshold) {
+        List<List<EmailProcessorXLSX.EmailEntry>> groups = new ArrayList<>();
+        Map<String, List<EmailProcessorXLSX.EmailEntry>> byText = new HashMap<>();
+        Map<List<EmailProcessorXLSX.EmailEntry>, long[]> signatures = new IdentityHashMap<>();
+        Map<Long, List<List<EmailProcessorXLSX.EmailEntry>>> bands = new HashMap<>();
+
+        for (EmailProcessorXLSX.EmailEntry issue : issues) {
+            String text = issue.getProcessedBodyCleaned() + '\n' + issue.getSolution();
+            List<EmailProcessorXLSX.EmailEntry> group = byText.get(text);
+            if (group == null) {
+                long[] signature = signature(text);
+                if (signature == null) {
+                    List<EmailProcessorXLSX.EmailEntry> single = new ArrayList<>();
+                    single.add(issue);
+                    groups.add(single);
+                    continue;
+                }
+                group = findSimilar(signature, bands, signatures, threshold);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.add(group);
+                    signatures.put(group, signature);
+                    for (int band = 0; band < SIGNATURE_SIZE / BAND_SIZE; band++) {
+                        bands.computeIfAbsent(bandKey(signature, band), k -> new ArrayList<>()).add(group);
+                    }
+                }
+                byText.put(text, group);
+            }
+            group.add(issue);
+        }
+        return groups;
+    }
+
+    private static List<EmailProcessorXLSX.EmailEntry> findSimilar(
+            long[] signature, Map<Long, List<List<EmailProcessorXLSX.EmailEntry>>> bands,
+            Map<List<EmailProcessorXLSX.EmailEntry>, long[]> signatures, double threshold) {
+        for (int band = 0; band < SIGNATURE_SIZE / BAND_SIZE; band++) {
+            List<List<EmailProcessorXLSX.EmailEntry>> candidates = bands.get(bandKey(signature, band));
+            if (candidates == null) {
+                continue;
+            }
+            for (List<EmailProcessorXLSX.EmailEntry> candidate : candidates) {
+                if (similarity(signature, signatures.get(candidate)) >= threshold) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Estimated Jaccard similarity: the share of matching buckets.
+     */
+    static double similarity(long[] a, long[] b) {
+        int matches = 0;
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            if (a[i] == b[i]) {
+                matches++;
+            }
+        }
+        return (double) matches / SIGNATURE_SIZE;
+    }
+
+    /**
+     * Densified MinHash signature of {@code text}, or {@code null} if it has no words.
+     */
+    static long[] signature(String text) {
+        long[] signature = new long[SIGNATURE_SIZE];
+        Arrays.fill(signature, EMPTY_BUCKET);
+        String[] words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+
+        // Rolling window of word hashes; texts shorter than a shingle become a single shingle
+        long[] window = new long[SHINGLE_WORDS];
+        int count = 0;
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            window[count % SHINGLE_WORDS] = mix(word.hashCode());
+            count++;
+            if (count >= SHINGLE_WORDS) {
+                add(signature, shingleHash(window, count));
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        if (count < SHINGLE_WORDS) {
+            add(signature, shingleHash(window, count));
+        }
+        return densify(signature);
+    }
+
+    /**
+     * Fills each empty bucket with the value of a filled bucket picked by a hash of the empty
+     * bucket's position, the same for every text. Two texts then agree on a filled-in bucket with
+     * the probability they agree on a filled one, and no band is left all empty.
+     */
+    private static long[] densify(long[] signature) {
+        long[] dense = signature.clone();
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            if (signature[i] != EMPTY_BUCKET) {
+                continue;
+            }
+            long attempt = 0;
+            int source;
+            do {
+                source = (int) (mix(((long) i << 32) + ++attempt) >>> 58);
+            } while (signature[source] == EMPTY_BUCKET);
+            dense[i] = signature[source];
+        }
+        return dense;
+    }
+
+    private static long shingleHash(long[] window, int count) {
+        long hash = 0;
+        int words = Math.min(count, SHINGLE_WORDS);
+        for (int i = count - words; i < count; i++) {
+            hash = mix(hash * 31 + window[i % SHINGLE_WORDS]);
+        }
+        return hash;
+    }
+
+    private static void add(long[] signature, long hash) {
+        int bucket = (int) (hash >>> 58); // top 6 bits pick one of 64 buckets
+        long value = hash & 0x03FF_FFFF_FFFF_FFFFL;
+        if (value < signature[bucket]) {
+            signature[bucket] = value;
+        }
+    }
+
+    private static long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int i = band * BAND_SIZE; i < (band + 1) * BAND_SIZE; i++) {
+            key = mix(key * 31 + signature[i]);
+        }
+        return key;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
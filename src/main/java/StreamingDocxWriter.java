@@ -0,0 +1,219 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * {@link ReportWriter} that writes {@code word/document.xml} straight into the DOCX ZIP as
+ * paragraphs arrive, so no document object model is ever built. The package has the same parts
+ * as the one POI creates for a new {@code XWPFDocument} with a page number footer, plus the
+ * {@link ReportStyles} style sheet.
+ */
+public class StreamingDocxWriter implements ReportWriter {
+
+    static final String W_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    static final String R_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+    private static final String BODY_PARAGRAPH = "<w:p><w:pPr><w:pStyle w:val=\"" + ReportStyles.BODY + "\"/></w:pPr>";
+    private static final String SEPARATOR_PARAGRAPH = "<w:p><w:pPr><w:pStyle w:val=\"" + ReportStyles.SEPARATOR + "\"/></w:pPr>";
+    private static final String HEADING_RUN = "<w:r><w:rPr><w:rStyle w:val=\"" + ReportStyles.HEADING + "\"/></w:rPr>";
+
+    private final ParallelZipOutputStream zip;
+    private final Writer xml;
+
+    public StreamingDocxWriter(String outputPath) throws IOException {
+        this(outputPath, Deflater.DEFAULT_COMPRESSION, 1);
+    }
+
+    /**
+     * Compresses the package at {@code compressionLevel} on up to {@code compressionThreads}
+     * threads; see {@link ParallelZipOutputStream}.
+     */
+    public StreamingDocxWriter(String outputPath, int compressionLevel, int compressionThreads) throws IOException {
+        this.zip = new ParallelZipOutputStream(outputPath, compressionLevel, compressionThreads);
+        this.xml = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), 64 * 1024);
+
+        zip.putNextEntry("word/document.xml");
+        xml.write(XML_DECLARATION);
+        xml.write("<w:document xmlns:w=\"" + W_NS + "\" xmlns:r=\"" + R_NS + "\"><w:body>");
+    }
+
+    @Override
+    public void writeClusterParagraph(List<String> lines) throws IOException {
+        writeParagraph(xml, lines);
+    }
+
+    @Override
+    public boolean supportsParagraphXml() {
+        return true;
+    }
+
+    /**
+     * Appends paragraph markup produced by {@link #paragraphXml}, e.g. from a {@link RenderCache}.
+     */
+    @Override
+    public void writeParagraphXml(String paragraph) throws IOException {
+        xml.write(paragraph);
+    }
+
+    /**
+     * Returns the markup {@link #writeClusterParagraph} would write for {@code lines}.
+     */
+    public static String paragraphXml(List<String> lines) {
+        StringWriter out = new StringWriter();
+        try {
+            writeParagraph(out, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes a {@code ReportBody} paragraph. Each heading gets its own {@code ReportHeading} run;
+     * consecutive plain lines share one run, separated by line breaks.
+     */
+    private static void writeParagraph(Writer xml, List<String> lines) throws IOException {
+        xml.write(BODY_PARAGRAPH);
+        boolean inPlainRun = false;
+        for (String line : lines) {
+            if (ClusterRenderer.isHeading(line)) {
+                if (inPlainRun) {
+                    xml.write("</w:r>");
+                    inPlainRun = false;
+                }
+                xml.write(HEADING_RUN);
+                writeText(xml, line.replace("**", ""));
+                xml.write("<w:br/></w:r>");
+            } else {
+                if (!inPlainRun) {
+                    xml.write("<w:r>");
+                    inPlainRun = true;
+                }
+                writeText(xml, line);
+                xml.write("<w:br/>");
+            }
+        }
+        if (inPlainRun) {
+            xml.write("</w:r>");
+        }
+        xml.write("</w:p>");
+    }
+
+    @Override
+    public void writeSeparator() throws IOException {
+        xml.write(SEPARATOR_PARAGRAPH);
+        xml.write("<w:r><w:t>---</w:t><w:br/></w:r></w:p>");
+    }
+
+    /**
+     * Writes a {@code w:t} element, preserving leading and trailing spaces the way
+     * {@code XWPFRun.setText} does.
+     */
+    static void writeText(Writer out, String text) throws IOException {
+        if (text.isEmpty()) {
+            out.write("<w:t/>");
+            return;
+        }
+        if (Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(text.length() - 1))) {
+            out.write("<w:t xml:space=\"preserve\">");
+        } else {
+            out.write("<w:t>");
+        }
+        writeEscaped(out, text);
+        out.write("</w:t>");
+    }
+
+    /**
+     * Writes {@code text} as XML character data, dropping characters XML 1.0 cannot represent and
+     * keeping carriage returns as {@code &#13;}.
+     */
+    static void writeEscaped(Writer out, String text) throws IOException {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String replacement;
+            if (c == '<') {
+                replacement = "&lt;";
+            } else if (c == '>') {
+                replacement = "&gt;";
+            } else if (c == '&') {
+                replacement = "&amp;";
+            } else if (c == '\r') {
+                // A raw CR would be read back as LF; POI writes it as a character reference too
+                replacement = "&#13;";
+            } else if (c < 0x20 && c != '\t' && c != '\n' || c == 0xFFFE || c == 0xFFFF) {
+                replacement = "";
+            } else {
+                continue;
+            }
+            out.write(text, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+        out.write(text, start, text.length() - start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (ParallelZipOutputStream out = zip) {
+            xml.write("<w:sectPr><w:footerReference w:type=\"default\" r:id=\"rId2\"/></w:sectPr></w:body></w:document>");
+            xml.flush();
+            out.closeEntry();
+
+            writePart("[Content_Types].xml", XML_DECLARATION
+                    + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                    + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                    + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                    + "<Override PartName=\"/docProps/app.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.extended-properties+xml\"/>"
+                    + "<Override PartName=\"/docProps/core.xml\" ContentType=\"application/vnd.openxmlformats-package.core-properties+xml\"/>"
+                    + "<Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>"
+                    + "<Override PartName=\"/word/footer1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.footer+xml\"/>"
+                    + "<Override PartName=\"/word/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.styles+xml\"/>"
+                    + "<Override PartName=\"/word/settings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.settings+xml\"/>"
+                    + "</Types>");
+            writePart("_rels/.rels", XML_DECLARATION
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"" + R_NS + "/officeDocument\" Target=\"word/document.xml\"/>"
+                    + "<Relationship Id=\"rId2\" Type=\"" + R_NS + "/extended-properties\" Target=\"docProps/app.xml\"/>"
+                    + "<Relationship Id=\"rId3\" Type=\"http://schemas.openxmlformats.org/package/2006/relationships/metadata/core-properties\" Target=\"docProps/core.xml\"/>"
+                    + "</Relationships>");
+            writePart("docProps/app.xml", XML_DECLARATION
+                    + "<Properties xmlns=\"http://schemas.openxmlformats.org/officeDocument/2006/extended-properties\">"
+                    + "<Application>Apache POI</Application></Properties>");
+            writePart("docProps/core.xml", XML_DECLARATION
+                    + "<cp:coreProperties xmlns:cp=\"http://schemas.openxmlformats.org/package/2006/metadata/core-properties\""
+                    + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:dcterms=\"http://purl.org/dc/terms/\""
+                    + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
+                    + "<dcterms:created xsi:type=\"dcterms:W3CDTF\">" + Instant.now().truncatedTo(ChronoUnit.SECONDS) + "</dcterms:created>"
+                    + "<dc:creator>Apache POI</dc:creator></cp:coreProperties>");
+            writePart("word/_rels/document.xml.rels", XML_DECLARATION
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"" + R_NS + "/settings\" Target=\"settings.xml\"/>"
+                    + "<Relationship Id=\"rId2\" Type=\"" + R_NS + "/footer\" Target=\"footer1.xml\"/>"
+                    + "<Relationship Id=\"rId3\" Type=\"" + R_NS + "/styles\" Target=\"styles.xml\"/>"
+                    + "</Relationships>");
+            writePart("word/footer1.xml", XML_DECLARATION
+                    + "<w:ftr xmlns:w=\"" + W_NS + "\"><w:p><w:pPr><w:pStyle w:val=\"" + ReportStyles.BODY + "\"/><w:jc w:val=\"center\"/></w:pPr>"
+                    + "<w:r>"
+                    + "<w:fldChar w:fldCharType=\"begin\"/><w:instrText>PAGE</w:instrText><w:fldChar w:fldCharType=\"end\"/>"
+                    + "</w:r></w:p></w:ftr>");
+            writePart("word/styles.xml", ReportStyles.STYLES_XML);
+            writePart("word/settings.xml", XML_DECLARATION + "<w:settings xmlns:w=\"" + W_NS + "\"/>");
+        }
+    }
+
+    private void writePart(String name, String content) throws IOException {
+        zip.putNextEntry(name);
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,401 @@
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads the first sheet of a clustered email workbook with POI's event API instead of loading
+ * it into an {@code XSSFWorkbook}. Only the current row is held in memory, so heap use is
+ * bounded by the row width rather than the sheet size.
+ */
+public class StreamingXlsxReader implements EmailRowSource {
+
+    static final String[] REQUIRED_COLUMNS = {
+            "docket_no", "mail_list_id", "mail_id", "ticket_id", "disposition_name",
+            "sub_disposition_name", "priority_name", "problem_reported", "assigned_to_dept_name",
+            "ProcessedBody_cleaned", "Solution", "Cluster"
+    };
+
+    static final int CLUSTER_COLUMN = REQUIRED_COLUMNS.length - 1;
+    private static final DefaultHandler IDLE_HANDLER = new DefaultHandler();
+
+    private final OPCPackage pkg;
+    private final RunMetrics metrics;
+    private final Resources resources;
+
+    public StreamingXlsxReader(OPCPackage pkg) {
+        this(pkg, new RunMetrics());
+    }
+
+    /**
+     * Counts read and skipped rows in {@code metrics}.
+     */
+    public StreamingXlsxReader(OPCPackage pkg, RunMetrics metrics) {
+        this(pkg, metrics, new Resources());
+    }
+
+    /**
+     * Parses with {@code resources}, which must not be in use by another reader at the same time.
+     */
+    public StreamingXlsxReader(OPCPackage pkg, RunMetrics metrics, Resources resources) {
+        this.pkg = pkg;
+        this.metrics = metrics;
+        this.resources = resources;
+    }
+
+    /**
+     * The parser, cell formatter and buffers a reader works with. A worker that reads one
+     * workbook after another keeps one instance and hands it to each reader, instead of setting
+     * them up again for every file.
+     */
+    public static class Resources {
+        private final DataFormatter formatter = new DataFormatter();
+        private final StringBuilder value = new StringBuilder();
+        private final StringBuilder formula = new StringBuilder();
+        private final StringBuilder inlineText = new StringBuilder();
+        private final String[] rowValues = new String[REQUIRED_COLUMNS.length];
+        private XMLReader parser;
+
+        private XMLReader parser() throws SAXException, ParserConfigurationException {
+            if (parser == null) {
+                parser = XMLHelper.newXMLReader();
+            }
+            return parser;
+        }
+    }
+
+    /**
+     * Parses every data row of the first sheet and hands each valid row to {@code sink} in sheet
+     * order. Rows with a missing or non-numeric cluster are skipped with a warning, exactly like
+     * the workbook-based reader did.
+     */
+    @Override
+    public void readEntries(Consumer<EmailProcessorXLSX.EmailEntry> sink) throws IOException {
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            // Phonetic (rPh) runs are left out, as XSSFWorkbook and the inline string path do
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+            StylesTable styles = reader.getStylesTable();
+
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new IOException("No sheets found in the XLSX workbook.");
+            }
+
+            SheetHandler handler = new SheetHandler(sharedStrings, styles, sink, metrics, resources);
+            XMLReader parser = resources.parser();
+            try (InputStream sheet = sheets.next()) {
+                parser.setContentHandler(handler);
+                parser.parse(new InputSource(sheet));
+            } finally {
+                // Don't keep the sink and the workbook's tables reachable from the pooled parser
+                parser.setContentHandler(IDLE_HANDLER);
+            }
+            if (handler.columnIndexes == null) {
+                throw new IOException("XLSX data is empty or header row is missing.");
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (SAXException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to parse XLSX sheet: " + e.getMessage(), e);
+        } catch (OpenXML4JException | ParserConfigurationException e) {
+            throw new IOException("Failed to open XLSX workbook: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Maps the header names to column indexes in {@link #REQUIRED_COLUMNS} order.
+     */
+    static int[] resolveColumns(Map<String, Integer> headerMap) throws IOException {
+        return resolveColumns(headerMap, "XLSX");
+    }
+
+    /**
+     * Same as {@link #resolveColumns(Map)}, naming {@code format} if a column is missing.
+     */
+    static int[] resolveColumns(Map<String, Integer> headerMap, String format) throws IOException {
+        int[] indexes = new int[REQUIRED_COLUMNS.length];
+        for (int i = 0; i < REQUIRED_COLUMNS.length; i++) {
+            indexes[i] = headerMap.getOrDefault(REQUIRED_COLUMNS[i], -1);
+            if (indexes[i] == -1) {
+                throw new IOException("Missing one or more required columns in " + format + ".");
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Converts a cell reference such as {@code "AB12"} to its zero-based column index.
+     */
+    static int columnIndexOf(String cellRef) {
+        int column = 0;
+        for (int i = 0; i < cellRef.length(); i++) {
+            char c = cellRef.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    private static class SheetHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final StylesTable styles;
+        private final Consumer<EmailProcessorXLSX.EmailEntry> sink;
+        private final RunMetrics metrics;
+        private final DataFormatter formatter;
+
+        private int[] columnIndexes;
+        private Map<Integer, Integer> columnSlots;
+        private final Map<String, Integer> headerMap = new HashMap<>();
+
+        // Per-row state: formatted values of the required columns only
+        private final String[] rowValues;
+        private boolean clusterNumeric;
+        private double clusterValue;
+        private RuntimeException cellError;
+        private int rowNum = -1;
+
+        // Per-cell state
+        private int columnIndex = -1;
+        private String cellType;
+        private String cellStyle;
+        private boolean hasFormula;
+        private final StringBuilder value;
+        private final StringBuilder formula;
+        private final StringBuilder inlineText;
+        private boolean inValue;
+        private boolean inFormula;
+        private boolean inInlineText;
+        private boolean inPhonetic;
+
+        SheetHandler(ReadOnlySharedStringsTable sharedStrings, StylesTable styles,
+                     Consumer<EmailProcessorXLSX.EmailEntry> sink, RunMetrics metrics, Resources resources) {
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.sink = sink;
+            this.metrics = metrics;
+            this.formatter = resources.formatter;
+            this.rowValues = resources.rowValues;
+            this.value = resources.value;
+            this.formula = resources.formula;
+            this.inlineText = resources.inlineText;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row":
+                    String r = attributes.getValue("r");
+                    rowNum = r != null ? Integer.parseInt(r) - 1 : rowNum + 1;
+                    Arrays.fill(rowValues, null);
+                    clusterNumeric = false;
+                    cellError = null;
+                    columnIndex = -1;
+                    break;
+                case "c":
+                    String ref = attributes.getValue("r");
+                    columnIndex = ref != null ? columnIndexOf(ref) : columnIndex + 1;
+                    cellType = attributes.getValue("t");
+                    cellStyle = attributes.getValue("s");
+                    hasFormula = false;
+                    value.setLength(0);
+                    formula.setLength(0);
+                    inlineText.setLength(0);
+                    break;
+                case "v":
+                    inValue = true;
+                    break;
+                case "f":
+                    inFormula = true;
+                    hasFormula = true;
+                    break;
+                case "rPh":
+                    inPhonetic = true;
+                    break;
+                case "t":
+                    inInlineText = "inlineStr".equals(cellType) && !inPhonetic;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue) {
+                value.append(ch, start, length);
+            } else if (inFormula) {
+                formula.append(ch, start, length);
+            } else if (inInlineText) {
+                inlineText.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v":
+                    inValue = false;
+                    break;
+                case "f":
+                    inFormula = false;
+                    break;
+                case "rPh":
+                    inPhonetic = false;
+                    break;
+                case "t":
+                    inInlineText = false;
+                    break;
+                case "c":
+                    endCell();
+                    break;
+                case "row":
+                    endRow();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void endCell() {
+            if (columnIndexes == null) {
+                if (rowNum == 0) {
+                    headerMap.put(formatCell().trim(), columnIndex);
+                }
+                return;
+            }
+            Integer slot = columnSlots.get(columnIndex);
+            if (slot == null || cellError != null) {
+                return;
+            }
+            try {
+                rowValues[slot] = formatCell().trim();
+                if (slot == CLUSTER_COLUMN) {
+                    clusterNumeric = !hasFormula && (cellType == null || "n".equals(cellType)) && value.length() > 0;
+                    if (clusterNumeric) {
+                        clusterValue = Double.parseDouble(value.toString());
+                    }
+                }
+            } catch (RuntimeException e) {
+                // A malformed number, style or shared string index; endRow skips the row
+                cellError = e;
+            }
+        }
+
+        private void endRow() throws SAXException {
+            if (columnIndexes == null) {
+                if (rowNum != 0) {
+                    throw new SAXException(new IOException("XLSX data is empty or header row is missing."));
+                }
+                try {
+                    columnIndexes = resolveColumns(headerMap);
+                } catch (IOException e) {
+                    throw new SAXException(e);
+                }
+                columnSlots = new HashMap<>();
+                for (int i = 0; i < columnIndexes.length; i++) {
+                    columnSlots.put(columnIndexes[i], i);
+                }
+                return;
+            }
+
+            EmailProcessorXLSX.EmailEntry entry;
+            try {
+                if (cellError != null) {
+                    throw cellError;
+                }
+                if (!clusterNumeric) {
+                    System.err.println("Warning: Skipping row " + (rowNum + 1) + " due to invalid or missing cluster number format: " + valueOf(CLUSTER_COLUMN));
+                    metrics.rowSkipped(RunMetrics.SKIP_INVALID_CLUSTER);
+                    return;
+                }
+                entry = new EmailProcessorXLSX.EmailEntry(valueOf(0), valueOf(1), valueOf(2), valueOf(3),
+                        valueOf(4), valueOf(5), valueOf(6), valueOf(7), valueOf(8), valueOf(9), valueOf(10),
+                        (int) clusterValue);
+            } catch (Exception e) {
+                System.err.println("Warning: Skipping row " + (rowNum + 1) + " due to data parsing error: " + e.getMessage());
+                metrics.rowSkipped(RunMetrics.SKIP_PARSE_ERROR);
+                return;
+            }
+            metrics.rowRead();
+            sink.accept(entry);
+        }
+
+        private String valueOf(int slot) {
+            return rowValues[slot] != null ? rowValues[slot] : "";
+        }
+
+        /**
+         * Formats the current cell the way {@link DataFormatter#formatCellValue} formats a
+         * workbook cell without a formula evaluator.
+         */
+        private String formatCell() {
+            if (hasFormula) {
+                // Without an evaluator the formatter shows the formula itself; shared formula
+                // children carry no text, so fall back to their cached result.
+                return formula.length() > 0 ? formula.toString() : value.toString();
+            }
+            if (cellType == null || "n".equals(cellType)) {
+                if (value.length() == 0) {
+                    return "";
+                }
+                return formatNumber(Double.parseDouble(value.toString()));
+            }
+            switch (cellType) {
+                case "s":
+                    return sharedStrings.getItemAt(Integer.parseInt(value.toString())).getString();
+                case "inlineStr":
+                    return inlineText.toString();
+                case "b":
+                    return "0".equals(value.toString()) ? "FALSE" : "TRUE";
+                default:
+                    return value.toString();
+            }
+        }
+
+        private String formatNumber(double number) {
+            XSSFCellStyle style = null;
+            if (styles != null) {
+                if (cellStyle != null) {
+                    style = styles.getStyleAt(Integer.parseInt(cellStyle));
+                } else if (styles.getNumCellStyles() > 0) {
+                    style = styles.getStyleAt(0);
+                }
+            }
+            if (style == null) {
+                return formatter.formatRawCellContents(number, 0, "General");
+            }
+            short formatIndex = style.getDataFormat();
+            String formatString = style.getDataFormatString();
+            if (formatString == null) {
+                formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+            }
+            return formatter.formatRawCellContents(number, formatIndex, formatString);
+        }
+    }
+}